@@ -0,0 +1,218 @@
+/*
+ Filename: BitboardDistanceField.java
+ Description: Word-parallel breadth-first distance fields over a packed bitboard of a MazeProblem's
+                open cells, advancing the wavefront 64 cells per machine word.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.util.Arrays;
+
+/**
+ * Computes the same distance fields as {@link DistanceField}, but advances the
+ * search one whole layer at a time over bitboards: each grid row is packed into
+ * <code>long</code> words with bit <code>col % 64</code> of word
+ * <code>col / 64</code> set for open cells, and the next layer of the wavefront
+ * is found for 64 cells at once with a few shifts, ANDs and ORs.
+ * <p>
+ * Cells that cost more than 1 to enter (mud) are not a special case: a cell
+ * first reached from a layer at distance d is scheduled into the layer at
+ * distance d + cost, kept in a small ring of future layers. Since every cell's
+ * cost is paid on entry, the first layer to reach a cell always gives it its
+ * cheapest distance, so the result is exactly Dijkstra's.
+ */
+public class BitboardDistanceField {
+
+    // Fields
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Largest cell cost handled word-parallel; mazes with costlier cells are
+     * left to the scalar engine, since the ring of future layers grows with the
+     * largest cost.
+     */
+    public static final int MAX_COST = 64;
+
+    private final int rows, cols, words;
+    private final long[] open;
+    private final long[][] costs;
+    private final int ringMask;
+
+    // Constructor
+    // -----------------------------------------------------------------------------
+
+    private BitboardDistanceField(MazeProblem problem, long[] open, long[][] costs, int maxCost) {
+        this.rows = problem.getRows();
+        this.cols = problem.getCols();
+        this.words = (cols + 63) >>> 6;
+        this.open = open;
+        this.costs = costs;
+        this.ringMask = Integer.highestOneBit(maxCost) * 2 - 1;
+    }
+
+    // Methods
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Packs the given MazeProblem's grid into bitboards: one of all open cells,
+     * and one per distinct cell cost.
+     *
+     * @param problem The MazeProblem to pack.
+     * @return The bitboard engine, or null if some cell costs more than
+     *         {@link #MAX_COST} or the terrain has one-way glyphs, in which case
+     *         the scalar engine should be used.
+     */
+    public static BitboardDistanceField build(MazeProblem problem) {
+        if (problem.hasOneWayTerrain()) {
+            return null;
+        }
+        int rows = problem.getRows(), cols = problem.getCols(), words = (cols + 63) >>> 6;
+        long[] open = new long[rows * words];
+        long[][] costs = new long[MAX_COST + 1][];
+        int maxCost = 1;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                if (!problem.isOpen(row, col)) {
+                    continue;
+                }
+                int cost = problem.getCost(row, col);
+                if (cost < 1 || cost > MAX_COST) {
+                    return null;
+                }
+                long bit = 1L << col;
+                int word = row * words + (col >>> 6);
+                open[word] |= bit;
+                if (costs[cost] == null) {
+                    costs[cost] = new long[rows * words];
+                }
+                costs[cost][word] |= bit;
+                maxCost = Math.max(maxCost, cost);
+            }
+        }
+        return new BitboardDistanceField(problem, open, costs, maxCost);
+    }
+
+    /**
+     * Computes the distance field outward from the given source cell, one
+     * wavefront layer at a time.
+     *
+     * @param row Row of the source cell.
+     * @param col Column of the source cell.
+     * @return The distance to every cell (indexed by <code>row * cols + col</code>),
+     *         or {@link DistanceField#UNREACHABLE}.
+     */
+    public int[] compute(int row, int col) {
+        Wavefront wave = new Wavefront();
+        wave.schedule(0, row * words + (col >>> 6), 1L << col);
+        for (int d = 0; wave.pending > 0; d++) {
+            wave.advance(d);
+        }
+        return wave.dist;
+    }
+
+    /**
+     * The state of one distance field computation. ring[d & ringMask] holds the
+     * layer of cells at distance d, for the few distances ahead of the current
+     * one that cells can be scheduled into, and active[d & ringMask] lists the
+     * words of that layer with any bit set, so that a layer costs only the words
+     * it touches rather than a scan of the whole board.
+     */
+    private class Wavefront {
+
+        final int[] dist = new int[rows * cols];
+        final long[] seen = new long[open.length];
+        final long[][] ring = new long[ringMask + 1][];
+        final int[][] active = new int[ringMask + 1][];
+        final int[] activeCount = new int[ringMask + 1];
+        int pending;
+
+        Wavefront() {
+            Arrays.fill(dist, DistanceField.UNREACHABLE);
+        }
+
+        /**
+         * Settles every cell of the layer at distance d, then spreads the layer to
+         * its unseen open neighbors.
+         */
+        void advance(int d) {
+            int slot = d & ringMask, count = activeCount[slot];
+            if (count == 0) {
+                return;
+            }
+            pending--;
+            activeCount[slot] = 0;
+            long[] layer = ring[slot];
+            int[] list = active[slot];
+            for (int i = 0; i < count; i++) {
+                int index = list[i];
+                int base = (index / words) * cols + ((index % words) << 6);
+                for (long bits = layer[index]; bits != 0; bits &= bits - 1) {
+                    dist[base + Long.numberOfTrailingZeros(bits)] = d;
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                int index = list[i], w = index % words;
+                long bits = layer[index];
+                layer[index] = 0;
+
+                // Horizontal neighbors (carrying across word boundaries), then
+                // the words directly above and below
+                reach(d, index, bits << 1 | bits >>> 1);
+                if (w > 0) {
+                    reach(d, index - 1, bits << 63);
+                }
+                if (w + 1 < words) {
+                    reach(d, index + 1, bits >>> 63);
+                }
+                if (index >= words) {
+                    reach(d, index - words, bits);
+                }
+                if (index + words < open.length) {
+                    reach(d, index + words, bits);
+                }
+            }
+        }
+
+        /**
+         * Schedules the open, unseen cells among the given bits of one word, each
+         * into the layer at distance d plus its cost.
+         */
+        private void reach(int d, int index, long bits) {
+            long next = bits & open[index] & ~seen[index];
+            if (next == 0) {
+                return;
+            }
+            seen[index] |= next;
+            for (int cost = 1; next != 0; cost++) {
+                long[] ofCost = costs[cost];
+                long reached = (ofCost == null) ? 0 : next & ofCost[index];
+                if (reached != 0) {
+                    next &= ~reached;
+                    schedule((d + cost) & ringMask, index, reached);
+                }
+            }
+        }
+
+        void schedule(int slot, int index, long bits) {
+            if (ring[slot] == null) {
+                ring[slot] = new long[open.length];
+                active[slot] = new int[64];
+            }
+            if (ring[slot][index] == 0) {
+                if (activeCount[slot] == 0) {
+                    pending++;
+                }
+                if (activeCount[slot] == active[slot].length) {
+                    active[slot] = Arrays.copyOf(active[slot], activeCount[slot] * 2);
+                }
+                active[slot][activeCount[slot]++] = index;
+            }
+            ring[slot][index] |= bits;
+            seen[index] |= bits;
+        }
+
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ Filename: BucketQueue.java
+ Description: Bucket queue (Dial's algorithm) over packed state ids, used as the frontier of the Pathfinder
+                search when move costs are small integers.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.util.Arrays;
+
+/**
+ * Frontier for uniform-cost search over small integer move costs. Since every
+ * queued priority lies between the cost being expanded and that cost plus the
+ * largest move cost, a ring of that many buckets, one per priority, holds the
+ * whole frontier: pushing appends to a bucket and polling drains the current
+ * one, both in constant time rather than the logarithmic time of a heap.
+ * <p>
+ * Every id appears at most once, as in {@link IndexedHeap}: each id's bucket
+ * and position within it are kept in the search's StateTable, so lowering a
+ * priority removes the old entry in constant time, by moving the last entry of
+ * its bucket into its place, before appending the id to its new bucket.
+ */
+class BucketQueue implements StateQueue {
+
+    // Fields
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Largest move cost a bucket queue is used for; beyond it, the ring of
+     * buckets is mostly empty and an indexed heap is faster.
+     */
+    static final int MAX_COST = 64;
+
+    private final StateTable table;
+    private final long[][] buckets;
+    private final int[] counts;
+    private final int ringMask, ringShift;
+    private int current, size;
+
+    // Constructor
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Constructs an empty queue for moves that cost at most the given amount.
+     *
+     * @param table   The StateTable to record the queue slot of every id in.
+     * @param maxCost The largest cost of any single move.
+     */
+    BucketQueue(StateTable table, int maxCost) {
+        this.table = table;
+        this.ringMask = Integer.highestOneBit(Math.max(1, maxCost)) * 2 - 1;
+        this.ringShift = Integer.bitCount(ringMask);
+        this.buckets = new long[ringMask + 1][16];
+        this.counts = new int[ringMask + 1];
+    }
+
+    // Methods
+    // -----------------------------------------------------------------------------
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Inserts the id with the given priority, or moves it there if it is
+     * already queued; the search only ever does so to lower its priority.
+     *
+     * @param id  The id to insert.
+     * @param key The id's priority.
+     */
+    @Override
+    public void push(long id, int key) {
+        int queued = table.getQueueSlot(id);
+        if (queued != -1) {
+            remove(queued & ringMask, queued >>> ringShift);
+        }
+        int bucket = key & ringMask, position = counts[bucket];
+        if (position == buckets[bucket].length) {
+            if (position > (Integer.MAX_VALUE >>> ringShift) / 2) {
+                throw new IllegalStateException("Bucket queue cannot hold more than " + position
+                        + " states of one cost");
+            }
+            buckets[bucket] = Arrays.copyOf(buckets[bucket], position * 2);
+        }
+        buckets[bucket][counts[bucket]++] = id;
+        table.setQueueSlot(id, (position << ringShift) | bucket);
+        size++;
+    }
+
+    @Override
+    public long poll() {
+        int bucket = current & ringMask;
+        while (counts[bucket] == 0) {
+            bucket = ++current & ringMask;
+        }
+        long id = buckets[bucket][--counts[bucket]];
+        table.setQueueSlot(id, -1);
+        size--;
+        return id;
+    }
+
+    /**
+     * Removes the entry at the given position of the given bucket, moving the
+     * bucket's last entry into its place.
+     */
+    private void remove(int bucket, int position) {
+        long last = buckets[bucket][--counts[bucket]];
+        if (position != counts[bucket]) {
+            buckets[bucket][position] = last;
+            table.setQueueSlot(last, (position << ringShift) | bucket);
+        }
+        size--;
+    }
+
+}
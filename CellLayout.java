@@ -0,0 +1,48 @@
+/*
+ Filename: CellLayout.java
+ Description: The orders in which a MazeProblem can number the cells of a dense grid, which decide how close
+                neighboring cells sit in the per-cell and per-state tables of a search.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+/**
+ * How a MazeProblem over a dense grid numbers its cells, and so how the
+ * per-cell cost array and the sequential search's per-state tables are laid
+ * out in memory (see {@link MazeProblem#getCellIndex}).
+ * <p>
+ * In {@link #ROW_MAJOR} order a cell's vertical neighbors lie a whole row away,
+ * so on wide mazes every "U" or "D" move of a search touches another cache line
+ * (and, for mazes thousands of cells wide, another page) of each table.
+ * {@link #TILED} order keeps the cells of each {@link #TILE_SIDE} by
+ * {@link #TILE_SIDE} square together, so that most vertical neighbors share a
+ * tile and lie only {@link #TILE_SIDE} indices apart; the grid is padded out to
+ * whole tiles, whose extra indices are walls outside of the maze.
+ * <p>
+ * Run-length grids always number their open cells in row-major order, and
+ * ignore the layout.
+ */
+public enum CellLayout {
+
+    /**
+     * Cells numbered <code>row * cols + col</code>.
+     */
+    ROW_MAJOR,
+
+    /**
+     * Cells numbered tile by tile, tiles in row-major order and cells in
+     * row-major order within each tile.
+     */
+    TILED;
+
+    /**
+     * Number of rows and of columns in the square tiles of {@link #TILED} order.
+     */
+    public static final int TILE_SIDE = 8;
+
+    // log2 of TILE_SIDE, and of the number of cells in a tile
+    static final int TILE_SHIFT = 3, TILE_AREA_SHIFT = 2 * TILE_SHIFT;
+
+}
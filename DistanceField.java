@@ -0,0 +1,150 @@
+/*
+ Filename: DistanceField.java
+ Description: Computes single-source shortest-path distance fields over the cells of a MazeProblem.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.util.*;
+
+/**
+ * Single-source shortest-path distances over a MazeProblem's grid, honoring the
+ * cost of entering each cell. A field computed from a source cell holds, for
+ * every cell, the cost of the cheapest path from the source to that cell
+ * (indexed by <code>row * cols + col</code>).
+ */
+public class DistanceField {
+
+    /**
+     * Distance stored for cells that cannot be reached from the source.
+     */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private DistanceField() {
+    }
+
+    /**
+     * Computes the distance field outward from the given source cell, with the
+     * word-parallel {@link BitboardDistanceField} engine when the maze's cell
+     * costs allow it and with {@link #computeScalar} otherwise. One-way terrain
+     * is honored: distances are those of paths leading away from the source.
+     *
+     * @param problem The MazeProblem whose grid is searched.
+     * @param row     Row of the source cell.
+     * @param col     Column of the source cell.
+     * @return The distance to every cell, or {@link #UNREACHABLE}.
+     */
+    public static int[] compute(MazeProblem problem, int row, int col) {
+        return computeAll(problem, problem.getState(row, col))[0];
+    }
+
+    /**
+     * Computes the distance fields outward from each of the given source cells,
+     * packing the maze into bitboards only once for all of them.
+     *
+     * @param problem The MazeProblem whose grid is searched.
+     * @param sources The source cells.
+     * @return The distance field of each source, in the order given.
+     */
+    public static int[][] computeAll(MazeProblem problem, MazeState... sources) {
+        BitboardDistanceField board = BitboardDistanceField.build(problem);
+        int[][] fields = new int[sources.length][];
+        for (int i = 0; i < sources.length; i++) {
+            fields[i] = (board != null) ? board.compute(sources[i].row(), sources[i].col())
+                    : computeScalar(problem, sources[i].row(), sources[i].col());
+        }
+        return fields;
+    }
+
+    /**
+     * Computes the distance field outward from the given source cell with
+     * Dijkstra's algorithm over a primitive binary heap, one cell at a time.
+     *
+     * @param problem The MazeProblem whose grid is searched.
+     * @param row     Row of the source cell.
+     * @param col     Column of the source cell.
+     * @return The distance to every cell, or {@link #UNREACHABLE}.
+     */
+    public static int[] computeScalar(MazeProblem problem, int row, int col) {
+        int rows = problem.getRows(), cols = problem.getCols();
+        int[] dist = new int[rows * cols];
+        Arrays.fill(dist, UNREACHABLE);
+
+        // Heap entries pack (distance, cell) into a long so that the natural long
+        // ordering is the distance ordering
+        long[] heap = new long[64];
+        int size = 0;
+        dist[row * cols + col] = 0;
+        heap[size++] = pack(0, row * cols + col);
+
+        while (size > 0) {
+            long top = heap[0];
+            heap[0] = heap[--size];
+            siftDown(heap, size);
+            int d = (int) (top >>> 32), cell = (int) top;
+            if (d > dist[cell]) {
+                continue; // stale entry
+            }
+            int r = cell / cols, c = cell % cols;
+            for (int dir = 0; dir < MazeProblem.ACTIONS.length; dir++) {
+                int nRow = r + MazeProblem.ACTION_ROWS[dir], nCol = c + MazeProblem.ACTION_COLS[dir];
+                if (!problem.canEnter(nRow, nCol, dir)) {
+                    continue;
+                }
+                int next = nRow * cols + nCol, nd = d + problem.getCost(nRow, nCol);
+                if (nd < dist[next]) {
+                    dist[next] = nd;
+                    if (size == heap.length) {
+                        heap = Arrays.copyOf(heap, size * 2);
+                    }
+                    heap[size++] = pack(nd, next);
+                    siftUp(heap, size - 1);
+                }
+            }
+        }
+        return dist;
+    }
+
+    private static long pack(int dist, int cell) {
+        return ((long) dist << 32) | (cell & 0xFFFFFFFFL);
+    }
+
+    private static void siftUp(long[] heap, int i) {
+        long entry = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= entry) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = entry;
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        if (size == 0) {
+            return;
+        }
+        long entry = heap[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (heap[child] >= entry) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = entry;
+    }
+
+}
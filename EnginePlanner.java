@@ -0,0 +1,222 @@
+/*
+ Filename: EnginePlanner.java
+ Description: Chooses the search engine expected to solve a MazeProblem fastest from a profile of the maze,
+                by tunable rules, and logs each choice with its actual runtime for calibration.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * Picks a {@link Pathfinder.Engine} for each MazeProblem from its
+ * {@link MazeProfile}, runs it, and logs the choice along with the actual
+ * runtime so that the rules can be calibrated against benchmark data. The rules
+ * are tried in order, and the first that applies wins:
+ *
+ * <ol>
+ * <li>PARALLEL, for big mazes with little mud and few corridors on a machine
+ * with several cores, where the Manhattan heuristic steers well and the work
+ * spreads across workers;</li>
+ * <li>PREPARED, for mazes that are neither tiny nor too big to hold an int
+ * distance field per key for, have few keys, and have no one-way terrain,
+ * where a handful of distance fields and a small DP beat searching the whole
+ * state space;</li>
+ * <li>LOW_MEMORY, for state spaces too big to keep per-state tables for;</li>
+ * <li>SEQUENTIAL otherwise.</li>
+ * </ol>
+ *
+ * The thresholds of each rule are held in {@link Rules}, whose defaults can be
+ * overridden with system properties. Choices are logged at level FINE on the
+ * logger named after this class, and counted in {@link PathfinderMetrics} under
+ * <code>planner.*</code>.
+ */
+public class EnginePlanner {
+
+    // Fields
+    // -----------------------------------------------------------------------------
+    private static final Logger LOG = Logger.getLogger(EnginePlanner.class.getName());
+
+    // Per engine: how often it was chosen, and how long its solves took
+    private static final Map<Pathfinder.Engine, PathfinderMetrics.Counter> CHOICES = new EnumMap<>(
+            Pathfinder.Engine.class);
+    private static final Map<Pathfinder.Engine, PathfinderMetrics.Histogram> NANOS = new EnumMap<>(
+            Pathfinder.Engine.class);
+    static {
+        for (Pathfinder.Engine engine : Pathfinder.Engine.values()) {
+            String name = engine.name().toLowerCase(Locale.ROOT);
+            CHOICES.put(engine, PathfinderMetrics.counter("planner.choice." + name));
+            NANOS.put(engine, PathfinderMetrics.histogram("planner." + name + ".nanos"));
+        }
+    }
+
+    private final Rules rules;
+    private final int cores;
+
+    // Constructors
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Constructs a planner with the default rules, as overridden by any system
+     * properties.
+     */
+    public EnginePlanner() {
+        this(Rules.fromProperties(System.getProperties()));
+    }
+
+    /**
+     * Constructs a planner with the given rules.
+     *
+     * @param rules The thresholds to choose engines by.
+     */
+    public EnginePlanner(Rules rules) {
+        this(rules, Runtime.getRuntime().availableProcessors());
+    }
+
+    EnginePlanner(Rules rules, int cores) {
+        this.rules = rules;
+        this.cores = cores;
+    }
+
+    // Methods
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Chooses the engine for the given MazeProblem, profiling it if that has not
+     * been done yet.
+     *
+     * @param problem The MazeProblem to plan for.
+     * @return The chosen engine, with the rule that chose it.
+     */
+    public Plan plan(MazeProblem problem) {
+        MazeProfile profile = problem.getProfile();
+        if (cores > 1 && profile.getCells() >= rules.parallelMinCells
+                && profile.getMudFraction() <= rules.parallelMaxMudFraction
+                && profile.getCorridorRatio() <= rules.parallelMaxCorridorRatio) {
+            return new Plan(profile, Pathfinder.Engine.PARALLEL, "big, open, and little mud");
+        }
+        if (profile.getKeyCount() <= rules.preparedMaxKeys && profile.getCells() >= rules.preparedMinCells
+                && profile.getCells() <= rules.preparedMaxCells && !problem.hasOneWayTerrain()) {
+            return new Plan(profile, Pathfinder.Engine.PREPARED, "few keys on a sizable grid");
+        }
+        if (profile.getStates() > rules.lowMemoryMinStates) {
+            return new Plan(profile, Pathfinder.Engine.LOW_MEMORY, "too many states to table");
+        }
+        return new Plan(profile, Pathfinder.Engine.SEQUENTIAL, "small state space");
+    }
+
+    /**
+     * Solves the given MazeProblem with the engine chosen for it, logging the
+     * choice and how long the solve took.
+     *
+     * @param problem A MazeProblem that specifies the maze, actions, transitions.
+     * @return A List of Strings representing actions that solve the problem of the
+     *         format: ["R", "R", "L", ...], or null if there is no solution.
+     */
+    public List<String> solve(MazeProblem problem) {
+        long start = System.nanoTime();
+        Plan plan = plan(problem);
+        List<String> result = Pathfinder.solve(problem, plan.getEngine());
+        long nanos = System.nanoTime() - start;
+        CHOICES.get(plan.getEngine()).increment();
+        NANOS.get(plan.getEngine()).record(nanos);
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine(String.format(Locale.ROOT, "planned %s (%s) for %s; solved in %.3f ms", plan.getEngine(),
+                    plan.getReason(), plan.getProfile(), nanos / 1e6));
+        }
+        return result;
+    }
+
+    /**
+     * An engine chosen for one maze, along with the profile and rule it was
+     * chosen by.
+     */
+    public static class Plan {
+
+        private final MazeProfile profile;
+        private final Pathfinder.Engine engine;
+        private final String reason;
+
+        Plan(MazeProfile profile, Pathfinder.Engine engine, String reason) {
+            this.profile = profile;
+            this.engine = engine;
+            this.reason = reason;
+        }
+
+        public MazeProfile getProfile() {
+            return profile;
+        }
+
+        public Pathfinder.Engine getEngine() {
+            return engine;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+    }
+
+    /**
+     * The thresholds the planner's rules compare profiles against. The defaults
+     * come from PathfinderBenchmark runs on random mazes; each can be overridden
+     * with a property named <code>pathfinder.planner.&lt;field&gt;</code>, e.g.
+     * <code>-Dpathfinder.planner.preparedMinCells=1024</code>.
+     */
+    public static class Rules {
+
+        /** Smallest grid, in cells, handed to the parallel engine. */
+        public long parallelMinCells = 1 << 20;
+        /** Largest mud fraction the parallel engine's heuristic copes with. */
+        public double parallelMaxMudFraction = 0.02;
+        /** Largest corridor ratio the parallel engine's heuristic copes with. */
+        public double parallelMaxCorridorRatio = 0.5;
+        /** Smallest grid, in cells, worth preparing distance fields for. */
+        public long preparedMinCells = 256;
+        /**
+         * Largest grid, in cells, worth preparing distance fields for; each key's
+         * field takes four bytes per cell.
+         */
+        public long preparedMaxCells = 1 << 22;
+        /** Most keys the prepared engine's visiting-order DP is used for. */
+        public int preparedMaxKeys = 3;
+        /** Most states the sequential engine keeps tables for. */
+        public long lowMemoryMinStates = 1L << 28;
+
+        /**
+         * Returns the default rules, with any thresholds given in the properties
+         * overriding them.
+         *
+         * @param properties Properties that may hold overrides.
+         * @return The Rules.
+         */
+        public static Rules fromProperties(Properties properties) {
+            Rules rules = new Rules();
+            rules.parallelMinCells = longProperty(properties, "parallelMinCells", rules.parallelMinCells);
+            rules.parallelMaxMudFraction = doubleProperty(properties, "parallelMaxMudFraction",
+                    rules.parallelMaxMudFraction);
+            rules.parallelMaxCorridorRatio = doubleProperty(properties, "parallelMaxCorridorRatio",
+                    rules.parallelMaxCorridorRatio);
+            rules.preparedMinCells = longProperty(properties, "preparedMinCells", rules.preparedMinCells);
+            rules.preparedMaxCells = longProperty(properties, "preparedMaxCells", rules.preparedMaxCells);
+            rules.preparedMaxKeys = (int) longProperty(properties, "preparedMaxKeys", rules.preparedMaxKeys);
+            rules.lowMemoryMinStates = longProperty(properties, "lowMemoryMinStates", rules.lowMemoryMinStates);
+            return rules;
+        }
+
+        private static long longProperty(Properties properties, String name, long fallback) {
+            String value = properties.getProperty("pathfinder.planner." + name);
+            return (value == null) ? fallback : Long.parseLong(value.trim());
+        }
+
+        private static double doubleProperty(Properties properties, String name, double fallback) {
+            String value = properties.getProperty("pathfinder.planner." + name);
+            return (value == null) ? fallback : Double.parseDouble(value.trim());
+        }
+
+    }
+
+}
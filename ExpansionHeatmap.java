@@ -0,0 +1,241 @@
+/*
+ Filename: ExpansionHeatmap.java
+ Description: Opt-in recorder of how often a search expanded each cell of a maze (per key-mask layer),
+                exportable as a PGM or PNG heatmap or as CSV.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import javax.imageio.ImageIO;
+
+/**
+ * Counts the expansions of a search per (cell, keys collected) state, to show
+ * where a slow query spent its effort. A heatmap is passed to a solver that
+ * supports one, such as {@link Pathfinder#solve(MazeProblem, ExpansionHeatmap)};
+ * solvers given none skip recording entirely.
+ * <p>
+ * Counts are kept in one primitive array indexed by packed state id,
+ * <code>cellIndex &lt;&lt; keyCount | keyMask</code> (see
+ * {@link MazeProblem#getCellIndex}), so each key-mask
+ * layer can be viewed on its own or all layers summed per cell. A heatmap may
+ * be reused across several solves of the problem it was built for to
+ * accumulate their expansions; each count stops at {@link Integer#MAX_VALUE}
+ * rather than wrapping when an iterative deepening search re-expands a state
+ * that often.
+ */
+public class ExpansionHeatmap {
+
+    // Fields
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Layer argument that sums the expansions of every key-mask layer.
+     */
+    public static final int ALL_LAYERS = -1;
+
+    private final MazeProblem problem;
+    private final int keyShift;
+    private final int[] counts;
+
+    // Constructor
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Constructs an empty heatmap for the given MazeProblem.
+     *
+     * @param problem The MazeProblem whose searches will be recorded.
+     */
+    public ExpansionHeatmap(MazeProblem problem) {
+        long states = (long) problem.getCellCount() << problem.getKeyCount();
+        if (states > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Maze has too many states (" + states + ") for a heatmap");
+        }
+        this.problem = problem;
+        this.keyShift = problem.getKeyCount();
+        this.counts = new int[(int) states];
+    }
+
+    // Methods
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Records one expansion of the state with the given packed id.
+     *
+     * @param state The packed state id.
+     */
+    void record(long state) {
+        int index = (int) state;
+        if (counts[index] != Integer.MAX_VALUE) {
+            counts[index]++;
+        }
+    }
+
+    /**
+     * Returns whether this heatmap was built for the given MazeProblem, and so
+     * numbers its states by that problem's cell indices and key count.
+     *
+     * @param problem A MazeProblem.
+     * @return Whether the heatmap can record searches of the problem.
+     */
+    public boolean covers(MazeProblem problem) {
+        return this.problem == problem;
+    }
+
+    /**
+     * Throws an IllegalArgumentException unless the given heatmap is null or
+     * {@link #covers covers} the given MazeProblem.
+     */
+    static void check(ExpansionHeatmap heatmap, MazeProblem problem) {
+        if (heatmap != null && !heatmap.covers(problem)) {
+            throw new IllegalArgumentException("Heatmap was built for a different maze");
+        }
+    }
+
+    /**
+     * Returns the number of expansions of the given cell in the given layer.
+     *
+     * @param row   Row of the cell.
+     * @param col   Column of the cell.
+     * @param layer The bitmask of collected keys, or {@link #ALL_LAYERS}.
+     * @return The expansion count.
+     */
+    public long getCount(int row, int col, int layer) {
+        int index = problem.getCellIndex(row, col);
+        if (index == -1) {
+            return 0;
+        }
+        int base = index << keyShift;
+        if (layer != ALL_LAYERS) {
+            return counts[base | layer];
+        }
+        long result = 0;
+        for (int mask = 0; mask < 1 << keyShift; mask++) {
+            result += counts[base | mask];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the total number of expansions recorded.
+     *
+     * @return The total expansion count.
+     */
+    public long getTotal() {
+        long result = 0;
+        for (int count : counts) {
+            result += count;
+        }
+        return result;
+    }
+
+    /**
+     * Writes the given layer as a binary (P5) greyscale PGM image, one pixel per
+     * cell: walls are black, unexpanded open cells dark grey, and expanded cells
+     * brighter the more often they were expanded, on a logarithmic scale.
+     *
+     * @param file  The file to write.
+     * @param layer The bitmask of collected keys, or {@link #ALL_LAYERS}.
+     * @throws IOException If the file cannot be written.
+     */
+    public void writePgm(Path file, int layer) throws IOException {
+        int rows = problem.getRows(), cols = problem.getCols();
+        double scale = scale(layer);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            out.write(("P5\n" + cols + " " + rows + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    out.write(problem.isOpen(row, col) ? 32 + (int) (223 * heat(row, col, layer, scale)) : 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the given layer as a PNG image, one pixel per cell: walls are black,
+     * unexpanded open cells dark grey, and expanded cells run from blue (rarely
+     * expanded) to red (most expanded), on a logarithmic scale.
+     *
+     * @param file  The file to write.
+     * @param layer The bitmask of collected keys, or {@link #ALL_LAYERS}.
+     * @throws IOException If the file cannot be written.
+     */
+    public void writePng(Path file, int layer) throws IOException {
+        int rows = problem.getRows(), cols = problem.getCols();
+        double scale = scale(layer);
+        BufferedImage image = new BufferedImage(cols, rows, BufferedImage.TYPE_INT_RGB);
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                int rgb = 0;
+                if (problem.isOpen(row, col)) {
+                    double heat = heat(row, col, layer, scale);
+                    rgb = (heat == 0) ? 0x303030 : (int) (255 * heat) << 16 | (int) (255 * (1 - heat));
+                }
+                image.setRGB(col, row, rgb);
+            }
+        }
+        if (!ImageIO.write(image, "png", file.toFile())) {
+            throw new IOException("No PNG writer is available");
+        }
+    }
+
+    /**
+     * Writes every nonzero count as CSV, with a header line and one line per
+     * expanded state: <code>row,col,mask,expansions</code>.
+     *
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void writeCsv(Path file) throws IOException {
+        int fullMask = (1 << keyShift) - 1;
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println("row,col,mask,expansions");
+            for (int state = 0; state < counts.length; state++) {
+                if (counts[state] != 0) {
+                    int cell = state >>> keyShift;
+                    out.println(problem.getCellRow(cell) + "," + problem.getCellCol(cell) + ","
+                            + (state & fullMask) + "," + counts[state]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the summed heatmap as PGM and PNG, and every count as CSV, next to
+     * the given maze file: <code>maze.txt</code> gets
+     * <code>maze.txt.heatmap.pgm</code>, <code>.png</code> and <code>.csv</code>.
+     *
+     * @param mazeFile The file the maze was read from.
+     * @throws IOException If any of the files cannot be written.
+     */
+    public void writeBeside(Path mazeFile) throws IOException {
+        String base = mazeFile.getFileName() + ".heatmap";
+        writePgm(mazeFile.resolveSibling(base + ".pgm"), ALL_LAYERS);
+        writePng(mazeFile.resolveSibling(base + ".png"), ALL_LAYERS);
+        writeCsv(mazeFile.resolveSibling(base + ".csv"));
+    }
+
+    /**
+     * Returns the log of one more than the largest count in the given layer, by
+     * which counts are scaled to heats between 0 and 1.
+     */
+    private double scale(int layer) {
+        long max = 0;
+        for (int row = 0; row < problem.getRows(); row++) {
+            for (int col = 0; col < problem.getCols(); col++) {
+                max = Math.max(max, getCount(row, col, layer));
+            }
+        }
+        return Math.log1p(Math.max(1, max));
+    }
+
+    private double heat(int row, int col, int layer, double scale) {
+        return Math.log1p(getCount(row, col, layer)) / scale;
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ Filename: HashStateTable.java
+ Description: StateTable that stores only the states a search actually reaches, in an open-addressing hash
+                table, for mazes whose full state space is far larger than memory.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.util.*;
+
+/**
+ * StateTable that holds an entry only for each state a search has written to,
+ * in a linear-probing hash table keyed by packed state id that doubles whenever
+ * it is half full. States never written read as unreached, not closed, and not
+ * in the frontier, just as in the dense tables. Lookups cost a hash and a probe
+ * rather than an array index, but memory grows with the part of the maze a
+ * search explores instead of with the whole state space, which suits lazily
+ * loaded grids far larger than memory.
+ */
+class HashStateTable implements StateTable {
+
+    private static final long EMPTY = -1;
+
+    private long[] ids;
+    private int[] costs, slots;
+    private byte[] parents;
+    private boolean[] closed;
+    private int size;
+
+    HashStateTable() {
+        allocate(1024);
+    }
+
+    private void allocate(int capacity) {
+        ids = new long[capacity];
+        costs = new int[capacity];
+        slots = new int[capacity];
+        parents = new byte[capacity];
+        closed = new boolean[capacity];
+        Arrays.fill(ids, EMPTY);
+        Arrays.fill(costs, Integer.MAX_VALUE);
+        Arrays.fill(slots, -1);
+    }
+
+    /**
+     * Returns the slot holding the given state, or the empty slot where it would
+     * be inserted.
+     */
+    private int find(long id) {
+        int mask = ids.length - 1, slot = (int) ParallelPathfinder.mix(id) & mask;
+        while (ids[slot] != EMPTY && ids[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the slot holding the given state, inserting an unreached entry for
+     * it first if there is none.
+     */
+    private int insert(long id) {
+        int slot = find(id);
+        if (ids[slot] == EMPTY) {
+            if (2 * (size + 1) > ids.length) {
+                grow();
+                slot = find(id);
+            }
+            ids[slot] = id;
+            size++;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldIds = ids;
+        int[] oldCosts = costs, oldSlots = slots;
+        byte[] oldParents = parents;
+        boolean[] oldClosed = closed;
+        allocate(oldIds.length * 2);
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] != EMPTY) {
+                int slot = find(oldIds[i]);
+                ids[slot] = oldIds[i];
+                costs[slot] = oldCosts[i];
+                slots[slot] = oldSlots[i];
+                parents[slot] = oldParents[i];
+                closed[slot] = oldClosed[i];
+            }
+        }
+    }
+
+    @Override
+    public int getCost(long id) {
+        return costs[find(id)];
+    }
+
+    @Override
+    public void setCost(long id, int cost) {
+        int entry = insert(id);
+        costs[entry] = cost;
+    }
+
+    @Override
+    public int getParent(long id) {
+        return parents[find(id)];
+    }
+
+    @Override
+    public void setParent(long id, int move) {
+        int entry = insert(id);
+        parents[entry] = (byte) move;
+    }
+
+    @Override
+    public boolean isClosed(long id) {
+        return closed[find(id)];
+    }
+
+    @Override
+    public void setClosed(long id) {
+        int entry = insert(id);
+        closed[entry] = true;
+    }
+
+    @Override
+    public int getQueueSlot(long id) {
+        return slots[find(id)];
+    }
+
+    @Override
+    public void setQueueSlot(long id, int slot) {
+        int entry = insert(id);
+        slots[entry] = slot;
+    }
+
+}
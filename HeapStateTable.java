@@ -0,0 +1,71 @@
+/*
+ Filename: HeapStateTable.java
+ Description: StateTable backed by plain Java arrays, for state spaces that fit comfortably on the heap.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.util.*;
+
+/**
+ * StateTable backed by plain arrays on the Java heap; the fastest option for
+ * state spaces of up to {@link StateTable#OFF_HEAP_THRESHOLD} states.
+ */
+class HeapStateTable implements StateTable {
+
+    private final int[] costs, slots;
+    private final byte[] parents;
+    private final long[] closed;
+
+    HeapStateTable(int states) {
+        this.costs = new int[states];
+        this.slots = new int[states];
+        this.parents = new byte[states];
+        this.closed = new long[(states + 63) >>> 6];
+        Arrays.fill(costs, Integer.MAX_VALUE);
+        Arrays.fill(slots, -1);
+    }
+
+    @Override
+    public int getCost(long id) {
+        return costs[(int) id];
+    }
+
+    @Override
+    public void setCost(long id, int cost) {
+        costs[(int) id] = cost;
+    }
+
+    @Override
+    public int getParent(long id) {
+        return parents[(int) id];
+    }
+
+    @Override
+    public void setParent(long id, int move) {
+        parents[(int) id] = (byte) move;
+    }
+
+    @Override
+    public boolean isClosed(long id) {
+        return (closed[(int) (id >>> 6)] & (1L << id)) != 0;
+    }
+
+    @Override
+    public void setClosed(long id) {
+        closed[(int) (id >>> 6)] |= 1L << id;
+    }
+
+    @Override
+    public int getQueueSlot(long id) {
+        return slots[(int) id];
+    }
+
+    @Override
+    public void setQueueSlot(long id, int slot) {
+        slots[(int) id] = slot;
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ Filename: IndexedHeap.java
+ Description: Binary min-heap over packed state ids that supports decrease-key, used as the frontier of
+                the Pathfinder search when move costs are too large for a bucket queue.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.util.*;
+
+/**
+ * Indexed binary min-heap of packed state ids, each with an integer priority.
+ * Every id appears at most once: an id already in the heap can only have its
+ * priority lowered, so the heap never holds more entries than there are
+ * distinct ids. Each id's position in the heap is kept in the search's
+ * StateTable, so the index costs no extra memory per state here.
+ */
+class IndexedHeap implements StateQueue {
+
+    // Fields
+    // -----------------------------------------------------------------------------
+    private final StateTable table;
+    private long[] ids;
+    private int[] keys;
+    private int size;
+
+    // Constructor
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Constructs an empty heap that records positions in the given table.
+     *
+     * @param table The StateTable of the search this heap is the frontier of.
+     */
+    IndexedHeap(StateTable table) {
+        this.table = table;
+        this.ids = new long[16];
+        this.keys = new int[16];
+    }
+
+    // Methods
+    // -----------------------------------------------------------------------------
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    boolean contains(long id) {
+        return table.getQueueSlot(id) != -1;
+    }
+
+    /**
+     * Inserts the id with the given priority, or lowers its priority if it is
+     * already in the heap and the new one is smaller.
+     *
+     * @param id  The id to insert.
+     * @param key The id's priority.
+     */
+    @Override
+    public void push(long id, int key) {
+        int i = table.getQueueSlot(id);
+        if (i == -1) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            i = size++;
+        } else if (key >= keys[i]) {
+            return;
+        }
+        siftUp(i, id, key);
+    }
+
+    /**
+     * Returns the smallest priority in the heap, which must not be empty.
+     */
+    int peekKey() {
+        return keys[0];
+    }
+
+    /**
+     * Removes and returns the id with the smallest priority; the heap must not be
+     * empty.
+     *
+     * @return The removed id.
+     */
+    @Override
+    public long poll() {
+        long top = ids[0];
+        table.setQueueSlot(top, -1);
+        if (--size > 0) {
+            siftDown(0, ids[size], keys[size]);
+        }
+        return top;
+    }
+
+    private void siftUp(int i, long id, int key) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            place(i, ids[parent], keys[parent]);
+            i = parent;
+        }
+        place(i, id, key);
+    }
+
+    private void siftDown(int i, long id, int key) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (keys[child] >= key) {
+                break;
+            }
+            place(i, ids[child], keys[child]);
+            i = child;
+        }
+        place(i, id, key);
+    }
+
+    private void place(int i, long id, int key) {
+        ids[i] = id;
+        keys[i] = key;
+        table.setQueueSlot(id, i);
+    }
+
+}
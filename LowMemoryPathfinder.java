@@ -0,0 +1,258 @@
+/*
+ Filename: LowMemoryPathfinder.java
+ Description: Memory-bounded iterative-deepening A* (IDA*) over (cell, collected keys) states, backed by
+                a fixed-size transposition table.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.util.*;
+
+/**
+ * Iterative-deepening A* search whose memory use does not grow with the maze.
+ * Each iteration is a depth-first search that cuts off any state whose f-cost
+ * exceeds the current threshold, and the threshold is raised to the smallest
+ * cut-off f-cost until a goal is found. The depth-first search runs on an
+ * explicit stack sized by the solution length, and a direct-mapped
+ * transposition table of fixed size prunes states already reached at least as
+ * cheaply. Colliding entries simply overwrite one another, which costs extra
+ * re-expansions but never optimality.
+ * <p>
+ * States cut off by the threshold that the table already holds at no greater
+ * cost do not count towards the next threshold, so once every state within
+ * reach has been expanded at its best cost, an iteration cuts off nothing new
+ * and the search ends finding no solution. Since collisions can keep the table
+ * from ever settling, the search also gives up once the threshold passes the
+ * cost of visiting every state once, which bounds the cost of any optimal path.
+ */
+public class LowMemoryPathfinder {
+
+    /**
+     * Default number of transposition table entries (16 bytes each).
+     */
+    public static final int DEFAULT_TABLE_SIZE = 1 << 20;
+
+    /**
+     * Instruments the low-memory engine records its solves in, under its name.
+     */
+    private static final PathfinderEvents.EngineMetrics ENGINE = PathfinderEvents.metrics("lowMemory");
+
+    // Fields
+    // -----------------------------------------------------------------------------
+    private final MazeProblem problem;
+    private final int cols, keyShift, fullMask;
+
+    // Transposition table: packed state id, best cost reached, and the iteration
+    // in which that cost was recorded
+    private final long[] tableIds;
+    private final int[] tableCosts, tableIterations;
+    private final int tableMask;
+
+    // Depth-first search stack: one frame per move on the current path
+    private int[] cells = new int[256], masks = new int[256], costs = new int[256], nextDirs = new int[256];
+    private long expansions;
+    private int goalCost, peakDepth;
+    private ExpansionHeatmap heatmap;
+
+    // Constructor
+    // -----------------------------------------------------------------------------
+
+    private LowMemoryPathfinder(MazeProblem problem, int tableSize) {
+        this.problem = problem;
+        this.cols = problem.getCols();
+        this.keyShift = problem.getKeyCount();
+        this.fullMask = (1 << keyShift) - 1;
+        int capacity = Integer.highestOneBit(Math.max(1, tableSize));
+        this.tableIds = new long[capacity];
+        this.tableCosts = new int[capacity];
+        this.tableIterations = new int[capacity];
+        this.tableMask = capacity - 1;
+        Arrays.fill(tableIds, -1);
+    }
+
+    // Methods
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Given a MazeProblem, returns an optimal sequence of actions that collects
+     * every key, using a transposition table of the default size.
+     *
+     * @param problem A MazeProblem that specifies the maze, actions, transitions.
+     * @return A List of Strings representing actions that solve the problem of the
+     *         format: ["R", "R", "L", ...], or null if there is no solution.
+     */
+    public static List<String> solve(MazeProblem problem) {
+        return solve(problem, DEFAULT_TABLE_SIZE);
+    }
+
+    /**
+     * Given a MazeProblem, returns an optimal sequence of actions that collects
+     * every key, using a transposition table with the given number of entries
+     * (rounded down to a power of two).
+     *
+     * @param problem   A MazeProblem that specifies the maze, actions, transitions.
+     * @param tableSize The number of transposition table entries.
+     * @return A List of Strings representing actions that solve the problem of the
+     *         format: ["R", "R", "L", ...], or null if there is no solution.
+     */
+    public static List<String> solve(MazeProblem problem, int tableSize) {
+        return solve(problem, tableSize, null);
+    }
+
+    /**
+     * Given a MazeProblem, returns an optimal sequence of actions that collects
+     * every key, using a transposition table with the given number of entries and
+     * recording every state expanded, in every iteration, into the given heatmap.
+     *
+     * @param problem   A MazeProblem that specifies the maze, actions, transitions.
+     * @param tableSize The number of transposition table entries.
+     * @param heatmap   The ExpansionHeatmap to record into, or null to record
+     *                  nothing; it must {@link ExpansionHeatmap#covers cover}
+     *                  the problem.
+     * @return A List of Strings representing actions that solve the problem of the
+     *         format: ["R", "R", "L", ...], or null if there is no solution.
+     */
+    public static List<String> solve(MazeProblem problem, int tableSize, ExpansionHeatmap heatmap) {
+        ExpansionHeatmap.check(heatmap, problem);
+        PathfinderEvents.Solve event = new PathfinderEvents.Solve();
+        event.begin();
+        long start = System.nanoTime();
+        if (!problem.canReachAllKeys()) {
+            return PathfinderEvents.rejected(event, ENGINE, start);
+        }
+        LowMemoryPathfinder search = new LowMemoryPathfinder(problem, tableSize);
+        search.heatmap = heatmap;
+        List<String> result = search.search();
+        return PathfinderEvents.solved(event, ENGINE, start, search.expansions, search.peakDepth,
+                (result == null) ? -1 : search.goalCost, result);
+    }
+
+    private List<String> search() {
+        MazeState initial = problem.getInitial();
+        int root = initial.row() * cols + initial.col();
+        int threshold = Pathfinder.heuristic(problem, initial.row(), initial.col(), 0);
+        long maxCost = ((long) problem.getCellCount() << keyShift) * problem.getMaxCost();
+        for (int iteration = 1; threshold != Integer.MAX_VALUE && threshold <= maxCost; iteration++) {
+            int result = iterate(root, threshold, iteration);
+            if (result < 0) {
+                return path(-result - 1);
+            }
+            threshold = result;
+        }
+        return null;
+    }
+
+    /**
+     * Runs one bounded depth-first iteration from the root.
+     *
+     * @return The smallest f-cost that exceeded the threshold (the next
+     *         threshold), or <code>-(depth + 1)</code> if a goal was reached at
+     *         the given stack depth.
+     */
+    private int iterate(int root, int threshold, int iteration) {
+        int next = Integer.MAX_VALUE, depth = 0;
+        cells[0] = root;
+        masks[0] = 0;
+        costs[0] = 0;
+        nextDirs[0] = 0;
+        if (fullMask == 0) {
+            return -1;
+        }
+
+        while (depth >= 0) {
+            int dir = nextDirs[depth]++;
+            if (dir == MazeProblem.ACTIONS.length) {
+                depth--;
+                continue;
+            }
+            int row = cells[depth] / cols + MazeProblem.ACTION_ROWS[dir];
+            int col = cells[depth] % cols + MazeProblem.ACTION_COLS[dir];
+            if (!problem.canEnter(row, col, dir)) {
+                continue;
+            }
+            int key = problem.getKeyIndex(row, col);
+            int mask = (key == -1) ? masks[depth] : masks[depth] | (1 << key);
+            int cost = costs[depth] + problem.getCost(row, col);
+            long id = ((long) (row * cols + col) << keyShift) | mask;
+            int f = cost + Pathfinder.heuristic(problem, row, col, mask);
+            if (f > threshold) {
+                // A state already reached at least as cheaply cannot lead
+                // anywhere new, so it must not hold the next threshold down
+                if (!isDominated(id, cost)) {
+                    next = Math.min(next, f);
+                }
+                continue;
+            }
+            if (!record(id, cost, iteration)) {
+                continue;
+            }
+
+            // Descend into the child
+            expansions++;
+            if (heatmap != null) {
+                heatmap.record(((long) problem.getCellIndex(row, col) << keyShift) | mask);
+            }
+            if (++depth == cells.length) {
+                cells = Arrays.copyOf(cells, depth * 2);
+                masks = Arrays.copyOf(masks, depth * 2);
+                costs = Arrays.copyOf(costs, depth * 2);
+                nextDirs = Arrays.copyOf(nextDirs, depth * 2);
+            }
+            peakDepth = Math.max(peakDepth, depth);
+            cells[depth] = row * cols + col;
+            masks[depth] = mask;
+            costs[depth] = cost;
+            nextDirs[depth] = 0;
+            if (mask == fullMask) {
+                goalCost = cost;
+                return -(depth + 1);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Checks the given state against the transposition table and records it if
+     * it is worth expanding. A state is pruned if it was reached more cheaply in
+     * any iteration, or at the same cost earlier in this iteration, since that
+     * visit already explored everything this one could.
+     *
+     * @return true if the state should be expanded.
+     */
+    private boolean record(long id, int cost, int iteration) {
+        int slot = (int) ParallelPathfinder.mix(id) & tableMask;
+        if (tableIds[slot] == id && (tableCosts[slot] < cost
+                || (tableCosts[slot] == cost && tableIterations[slot] == iteration))) {
+            return false;
+        }
+        tableIds[slot] = id;
+        tableCosts[slot] = cost;
+        tableIterations[slot] = iteration;
+        return true;
+    }
+
+    /**
+     * Returns whether the table holds the given state at a cost no greater than
+     * the given one.
+     */
+    private boolean isDominated(long id, int cost) {
+        int slot = (int) ParallelPathfinder.mix(id) & tableMask;
+        return tableIds[slot] == id && tableCosts[slot] <= cost;
+    }
+
+    /**
+     * Reads the moves off of the search stack, from the root to the given depth.
+     */
+    private List<String> path(int depth) {
+        List<String> result = new ArrayList<>(depth);
+        for (int i = 1; i <= depth; i++) {
+            // The frame's next direction was advanced past the move that led to the
+            // following frame, so that move is one before it
+            result.add(MazeProblem.ACTIONS[nextDirs[i - 1] - 1]);
+        }
+        return result;
+    }
+
+}
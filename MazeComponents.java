@@ -0,0 +1,268 @@
+/*
+ Filename: MazeComponents.java
+ Description: Labels the connected components of open cells in a MazeProblem so that unsolvable
+                problems (and impossible legs between cells) can be rejected before any search begins.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Connected-component labeling of the open (non-wall) cells in a MazeProblem.
+ * Every open cell is labeled with the row-major packed index
+ * (<code>row * cols + col</code>) of its component's first cell, first in the
+ * problem's cell-index order, which is row-major order unless the problem uses
+ * {@link CellLayout#TILED}. Walls are labeled with -1. Two cells can reach one
+ * another if and only if their labels match, so a labeling answers
+ * reachability queries in constant time after a single O(cells) pass. Labels
+ * are stored per cell index of the problem (see
+ * {@link MazeProblem#getCellIndex}), so mazes that index only their open cells
+ * are labeled in memory proportional to those.
+ */
+public class MazeComponents {
+
+    // Fields
+    // -----------------------------------------------------------------------------
+    private final MazeProblem problem;
+    private final int rows, cols;
+    private final int[] labels;
+    private final int componentCount;
+
+    /**
+     * Grids with at least this many cells are labeled with the parallel striped
+     * union-find rather than the sequential flood fill.
+     */
+    public static final int PARALLEL_THRESHOLD = 1 << 20;
+
+    // Constructor
+    // -----------------------------------------------------------------------------
+
+    private MazeComponents(MazeProblem problem, int[] labels, int componentCount) {
+        this.problem = problem;
+        this.rows = problem.getRows();
+        this.cols = problem.getCols();
+        this.labels = labels;
+        this.componentCount = componentCount;
+    }
+
+    // Factories
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Labels the given problem's grid, picking the sequential flood fill for
+     * small grids and for grids whose cell indices are not row-major (run-length
+     * or tiled), and the parallel striped union-find for other huge ones.
+     *
+     * @param problem The MazeProblem to label.
+     * @return The component labeling of the problem's open cells.
+     */
+    public static MazeComponents label(MazeProblem problem) {
+        long cells = (long) problem.getRows() * problem.getCols();
+        if (cells >= PARALLEL_THRESHOLD && problem.isRowMajorDense()) {
+            return labelParallel(problem, Runtime.getRuntime().availableProcessors());
+        }
+        return floodFill(problem);
+    }
+
+    /**
+     * Labels the given problem's grid with a sequential, iterative flood fill.
+     *
+     * @param problem The MazeProblem to label.
+     * @return The component labeling of the problem's open cells.
+     */
+    public static MazeComponents floodFill(MazeProblem problem) {
+        int[] labels = new int[problem.getCellCount()];
+        Arrays.fill(labels, -1);
+        int[] stack = new int[Math.max(1, labels.length)];
+        int count = 0;
+
+        for (int seed = 0; seed < labels.length; seed++) {
+            if (labels[seed] != -1 || !problem.isOpen(problem.getCellRow(seed), problem.getCellCol(seed))) {
+                continue;
+            }
+            // New component found: the seed is its first cell in row-major order,
+            // so it doubles as the component's label
+            count++;
+            int top = 0;
+            stack[top++] = seed;
+            labels[seed] = seed;
+            while (top > 0) {
+                int cell = stack[--top], row = problem.getCellRow(cell), col = problem.getCellCol(cell);
+                for (int dir = 0; dir < MazeProblem.ACTIONS.length; dir++) {
+                    int nRow = row + MazeProblem.ACTION_ROWS[dir], nCol = col + MazeProblem.ACTION_COLS[dir];
+                    if (!problem.isOpen(nRow, nCol)) {
+                        continue;
+                    }
+                    int next = problem.getCellIndex(nRow, nCol);
+                    if (labels[next] == -1) {
+                        labels[next] = seed;
+                        stack[top++] = next;
+                    }
+                }
+            }
+        }
+        return new MazeComponents(problem, labels, count);
+    }
+
+    /**
+     * Labels the given problem's grid with a striped union-find: each horizontal
+     * stripe of rows is united independently in parallel, the seams between
+     * adjacent stripes are then merged sequentially, and finally every cell is
+     * resolved to its root in parallel. Produces the same labels as
+     * {@link #floodFill(MazeProblem)}.
+     *
+     * @param problem The MazeProblem to label.
+     * @param stripes The number of stripes to split the rows into.
+     * @return The component labeling of the problem's open cells.
+     */
+    public static MazeComponents labelParallel(MazeProblem problem, int stripes) {
+        int rows = problem.getRows(), cols = problem.getCols();
+        if (!problem.isRowMajorDense()) {
+            return floodFill(problem); // stripes are rows of the dense grid
+        }
+        int stripeCount = Math.max(1, Math.min(stripes, rows));
+        int stripeRows = (rows + stripeCount - 1) / Math.max(1, stripeCount);
+        int[] parent = new int[rows * cols];
+
+        // Phase 1: unite each stripe on its own; stripes only ever touch their own
+        // cells, so they can run without any synchronization
+        IntStream.range(0, stripeCount).parallel().forEach(stripe -> {
+            int first = stripe * stripeRows, last = Math.min(rows, first + stripeRows);
+            for (int row = first; row < last; row++) {
+                for (int col = 0; col < cols; col++) {
+                    int cell = row * cols + col;
+                    if (!problem.isOpen(row, col)) {
+                        parent[cell] = -1;
+                        continue;
+                    }
+                    parent[cell] = cell;
+                    if (col > 0 && parent[cell - 1] != -1) {
+                        union(parent, cell - 1, cell);
+                    }
+                    if (row > first && parent[cell - cols] != -1) {
+                        union(parent, cell - cols, cell);
+                    }
+                }
+            }
+        });
+
+        // Phase 2: stitch together the seams between vertically adjacent stripes
+        for (int stripe = 1; stripe < stripeCount; stripe++) {
+            int row = stripe * stripeRows;
+            if (row >= rows) {
+                break;
+            }
+            for (int col = 0; col < cols; col++) {
+                int cell = row * cols + col;
+                if (parent[cell] != -1 && parent[cell - cols] != -1) {
+                    union(parent, cell - cols, cell);
+                }
+            }
+        }
+
+        // Phase 3: resolve every cell to its root, which is the smallest cell
+        // index in its component; finds are read-only here so this is race-free
+        int[] labels = new int[rows * cols];
+        IntStream.range(0, labels.length).parallel().forEach(cell -> {
+            labels[cell] = (parent[cell] == -1) ? -1 : find(parent, cell);
+        });
+        int count = (int) IntStream.range(0, labels.length).parallel().filter(cell -> labels[cell] == cell).count();
+        return new MazeComponents(problem, labels, count);
+    }
+
+    /**
+     * Finds the root of the given cell's set without modifying the forest.
+     */
+    private static int find(int[] parent, int cell) {
+        while (parent[cell] != cell) {
+            cell = parent[cell];
+        }
+        return cell;
+    }
+
+    /**
+     * Unites the sets of the two given cells, always keeping the smaller root so
+     * that every component's root is its first cell in row-major order. Uses path
+     * halving to keep the trees shallow.
+     */
+    private static void union(int[] parent, int a, int b) {
+        while (parent[a] != a) {
+            parent[a] = parent[parent[a]];
+            a = parent[a];
+        }
+        while (parent[b] != b) {
+            parent[b] = parent[parent[b]];
+            b = parent[b];
+        }
+        if (a < b) {
+            parent[b] = a;
+        } else if (b < a) {
+            parent[a] = b;
+        }
+    }
+
+    // Methods
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Returns the component label of the given cell.
+     *
+     * @param row Row of the cell.
+     * @param col Column of the cell.
+     * @return The row-major packed index of the first cell, in cell-index
+     *         order, of the cell's component, or -1 if the cell is a wall or
+     *         lies outside of the maze.
+     */
+    public int getLabel(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            return -1;
+        }
+        int index = problem.getCellIndex(row, col);
+        int label = (index == -1) ? -1 : labels[index];
+        return (label == -1) ? -1 : problem.getCellRow(label) * cols + problem.getCellCol(label);
+    }
+
+    /**
+     * Returns whether the two given states lie in the same component, i.e.,
+     * whether any path at all exists between them.
+     *
+     * @param a The first MazeState.
+     * @param b The second MazeState.
+     * @return true if b can be reached from a, false otherwise.
+     */
+    public boolean connected(MazeState a, MazeState b) {
+        int label = getLabel(a.row(), a.col());
+        return label != -1 && label == getLabel(b.row(), b.col());
+    }
+
+    /**
+     * Returns whether every one of the given targets can be reached from the
+     * given start. If not, no path collecting all of them can exist.
+     *
+     * @param start   The MazeState that the path begins at.
+     * @param targets The MazeStates that the path must visit.
+     * @return true if all targets are reachable from start, false otherwise.
+     */
+    public boolean allConnected(MazeState start, Collection<MazeState> targets) {
+        for (MazeState target : targets) {
+            if (!connected(start, target)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of distinct connected components of open cells.
+     *
+     * @return The component count.
+     */
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+}
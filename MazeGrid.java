@@ -0,0 +1,57 @@
+/*
+ Filename: MazeGrid.java
+ Description: Storage backend for the tiles of a maze, read by MazeProblem's cell accessors.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+/**
+ * Read access to the tiles of a rectangular maze, as the characters described
+ * in {@link MazeProblem#MazeProblem(String[])}. MazeProblem reads every cell
+ * through a MazeGrid, so mazes can be stored however suits their size.
+ */
+public interface MazeGrid {
+
+    /**
+     * @return The number of rows in the maze.
+     */
+    int getRows();
+
+    /**
+     * @return The number of columns in the maze.
+     */
+    int getCols();
+
+    /**
+     * Returns the tile at the given cell, which must lie within the maze.
+     *
+     * @param row Row of the cell.
+     * @param col Column of the cell.
+     * @return The tile character at that cell.
+     */
+    char getTile(int row, int col);
+
+    /**
+     * Returns the packed indices (<code>row * cols + col</code>) of every cell
+     * holding the initial state or a key, if the grid already knows them. When it
+     * does, MazeProblem trusts the grid and skips scanning every cell.
+     *
+     * @return The special cells, or null if the grid has to be scanned for them.
+     */
+    default int[] getSpecialCells() {
+        return null;
+    }
+
+    /**
+     * Returns whether every tile of this grid is held in memory, so that passes
+     * over the whole grid (like component labeling) are cheap.
+     *
+     * @return true if the whole grid is resident, false if it is loaded lazily.
+     */
+    default boolean isResident() {
+        return true;
+    }
+
+}
@@ -9,6 +9,8 @@
 package main.pathfinder.informed.trikey;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /**
  * Specifies the Maze Grid pathfinding problem including the actions,
@@ -19,26 +21,64 @@ public class MazeProblem {
 
     // Fields
     // -----------------------------------------------------------------------------
-    private String[] maze;
+    private final MazeGrid grid;
     private int rows, cols;
     private final MazeState INITIAL_STATE, GOAL_STATE;
     private final Set<MazeState> KEY_PIECES;
-    private static final Map<String, MazeState> TRANS_MAP = createTransitions();
+    private final int[] KEY_CELLS, KEY_INDICES;
     private static final Set<String> KEY_TILES = new HashSet<>(Arrays.asList("1", "2", "3"));
+    private static final String[] KEY_NAMES = { "1", "2", "3" };
+    private volatile MazeComponents components;
+    private final MazeProfile profile;
+    private Boolean keysInOrder;
+
+    // Grids that number only their open cells, whose ids then serve as the cell
+    // indices of every per-cell and per-state table
+    private final RunLengthMazeGrid sparse;
+    private final int cellCount;
+
+    // The order cells of a dense grid are numbered in, and for TILED order the
+    // number of tiles across each row of tiles (0 otherwise)
+    private final CellLayout layout;
+    private final int tileCols;
+
+    // The terrain the tiles are read with, compiled for grids held in memory into
+    // one entry cost per cell index (0 for walls) and, only if the terrain has
+    // one-way glyphs, the directions each cell may be entered by
+    private final TerrainTable terrain;
+    private final boolean oneWay;
+    private final int maxCost;
+    private final byte[] cellCosts, cellEntries;
+
+    // Canonical MazeState of each cell index, created on first use; mazes with
+    // more than INTERN_LIMIT cell indices hand out fresh MazeStates instead
+    private volatile MazeState[] states;
+    static final long INTERN_LIMIT = 1 << 24;
 
     /**
-     * @return Creates the transition map that maps String actions to MazeState
-     *         offsets, of the format: { "U": (0, -1), "D": (0, +1), "L": (-1, 0),
-     *         "R": (+1, 0) }
+     * The most keys a maze may hold. Searches track the collected keys as a
+     * bitmask below the cell index of each packed state id, and size their
+     * per-state tables by <code>cells &lt;&lt; keys</code>, so every key doubles
+     * the state space.
      */
-    private static final Map<String, MazeState> createTransitions() {
-        Map<String, MazeState> result = new HashMap<>();
-        result.put("U", new MazeState(0, -1, null));
-        result.put("D", new MazeState(0, 1, null));
-        result.put("L", new MazeState(-1, 0, null));
-        result.put("R", new MazeState(1, 0, null));
-        return result;
-    }
+    public static final int MAX_KEYS = 16;
+
+    /**
+     * Grids with at least this many cells are parsed in parallel stripes of rows.
+     */
+    public static final int PARALLEL_PARSE_THRESHOLD = 1 << 20;
+
+    // Metrics shared by every MazeProblem
+    private static final PathfinderMetrics.Histogram LOAD_NANOS = PathfinderMetrics.histogram("maze.load.nanos"),
+            COMPONENTS_NANOS = PathfinderMetrics.histogram("preprocess.components.nanos"),
+            VALIDATE_NANOS = PathfinderMetrics.histogram("validate.nanos");
+    private static final PathfinderMetrics.Counter VALIDATE_FAILURES = PathfinderMetrics.counter("validate.failures");
+
+    // Actions in a fixed order, along with their row and column offsets, for
+    // algorithms that work directly on cell coordinates rather than MazeStates
+    static final String[] ACTIONS = { "U", "D", "L", "R" };
+    static final int[] ACTION_ROWS = { -1, 1, 0, 0 };
+    static final int[] ACTION_COLS = { 0, 0, -1, 1 };
 
     // Constructor
     // -----------------------------------------------------------------------------
@@ -59,40 +99,260 @@ public class MazeProblem {
      *             </pre>
      */
     public MazeProblem(String[] maze) {
-        this.maze = maze;
-        this.rows = maze.length;
-        this.cols = (rows == 0) ? 0 : maze[0].length();
-        MazeState foundInitial = null, foundGoal = null;
+        this(new StringMazeGrid(maze), TerrainTable.DEFAULT);
+    }
+
+    /**
+     * Constructs a new MazeProblem from the given maze, reading its tiles with
+     * the given terrain table rather than the default one.
+     * 
+     * @param maze    An array of Strings in which characters represent the maze
+     *                entities, as glyphs of the terrain table.
+     * @param terrain The TerrainTable giving each glyph's entry cost.
+     */
+    public MazeProblem(String[] maze, TerrainTable terrain) {
+        this(new StringMazeGrid(maze), terrain);
+    }
+
+    /**
+     * Constructs a new MazeProblem over the given grid, which may keep its tiles
+     * in any storage backend. If a lazily loaded grid already knows where its
+     * initial state and keys are, only those cells are read here.
+     * 
+     * @param grid The MazeGrid holding the maze's tiles.
+     */
+    public MazeProblem(MazeGrid grid) {
+        this(grid, TerrainTable.DEFAULT);
+    }
+
+    /**
+     * Constructs a new MazeProblem over the given grid, reading its tiles with
+     * the given terrain table. Grids held in memory have the table compiled into
+     * a per-cell cost array while they are scanned, so that searches never
+     * decode glyphs; lazily loaded grids look each glyph up as it is read.
+     * 
+     * @param grid    The MazeGrid holding the maze's tiles.
+     * @param terrain The TerrainTable giving each glyph's entry cost.
+     */
+    public MazeProblem(MazeGrid grid, TerrainTable terrain) {
+        this(grid, terrain, CellLayout.ROW_MAJOR);
+    }
+
+    /**
+     * Constructs a new MazeProblem over the given grid, reading its tiles with
+     * the given terrain table and numbering its cells in the given layout, which
+     * every per-cell and per-state table of the problem and its searches is
+     * then laid out in.
+     * 
+     * @param grid    The MazeGrid holding the maze's tiles.
+     * @param terrain The TerrainTable giving each glyph's entry cost.
+     * @param layout  The CellLayout to number the cells of a dense grid in.
+     */
+    public MazeProblem(MazeGrid grid, TerrainTable terrain, CellLayout layout) {
+        PathfinderEvents.MazeLoad event = new PathfinderEvents.MazeLoad();
+        event.begin();
+        long start = System.nanoTime();
+        this.grid = grid;
+        this.rows = grid.getRows();
+        this.cols = grid.getCols();
+        this.sparse = (grid instanceof RunLengthMazeGrid) ? (RunLengthMazeGrid) grid : null;
+        this.layout = (sparse == null) ? layout : CellLayout.ROW_MAJOR;
+        if (this.layout == CellLayout.TILED) {
+            int side = CellLayout.TILE_SIDE;
+            this.tileCols = (cols + side - 1) / side;
+            long tiles = (long) (rows + side - 1) / side * tileCols;
+            this.cellCount = Math.toIntExact(tiles << CellLayout.TILE_AREA_SHIFT);
+        } else {
+            this.tileCols = 0;
+            this.cellCount = (sparse == null) ? rows * cols : sparse.getOpenCount();
+        }
+        this.terrain = terrain;
+        this.oneWay = terrain.hasOneWay();
+        this.maxCost = terrain.getMaxCost();
+        this.cellCosts = grid.isResident() ? new byte[cellCount] : null;
+        this.cellEntries = (grid.isResident() && oneWay) ? new byte[cellCount] : null;
+
+        // Find the initial state and keys in the given maze, validating (and,
+        // for grids in memory, compiling) every tile on the way, and then store
+        // them in fields once found
+        int[] special = grid.getSpecialCells();
+        Scan scan;
+        if (sparse != null) {
+            scan = scanOpenCells();
+        } else {
+            scan = (special == null || cellCosts != null) ? scanRows() : scanCells(special);
+        }
+        if (scan.invalid != -1) {
+            throw new IllegalArgumentException("Maze formatted invalidly: unknown tile '" + scan.invalidTile
+                    + "' at row " + scan.invalid / cols + ", column " + scan.invalid % cols);
+        }
+        if (scan.keyCount > MAX_KEYS) {
+            throw new IllegalArgumentException("Maze has " + scan.keyCount + " keys; at most " + MAX_KEYS
+                    + " are supported");
+        }
+        INITIAL_STATE = (scan.initial == -1) ? null : new MazeState(scan.initial % cols, scan.initial / cols, null);
         Set<MazeState> keys = new HashSet<>();
+        MazeState goal = null;
+        for (int k = 0; k < scan.keyCount; k++) {
+            int cell = scan.keys[k];
+            goal = new MazeState(cell % cols, cell / cols, KEY_NAMES[grid.getTile(cell / cols, cell % cols) - '1']);
+            keys.add(goal);
+        }
+        KEY_PIECES = keys;
+        this.GOAL_STATE = goal;
+
+        // Number the keys by their packed cell index (row-major order) so that
+        // searches can track collected keys as a bitmask
+        KEY_CELLS = Arrays.copyOf(scan.keys, scan.keyCount);
+        Arrays.sort(KEY_CELLS);
+        KEY_INDICES = new int[KEY_CELLS.length];
+        for (int k = 0; k < KEY_CELLS.length; k++) {
+            KEY_INDICES[k] = getCellIndex(KEY_CELLS[k] / cols, KEY_CELLS[k] % cols);
+        }
+
+        // Profile the maze while it is being loaded, by sampling it if it is
+        // not held in memory, so that planning a search costs nothing more
+        this.profile = MazeProfile.of(this);
+
+        LOAD_NANOS.record(System.nanoTime() - start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.rows = rows;
+            event.cols = cols;
+            event.keys = KEY_CELLS.length;
+            event.resident = grid.isResident();
+            event.commit();
+        }
+    }
+
+    /**
+     * Scans every row of the grid. Grids of at least PARALLEL_PARSE_THRESHOLD
+     * cells are split into stripes of rows that are scanned in parallel on the
+     * common fork-join pool, and the stripes' findings are then merged in row
+     * order, so that the result (including which invalid cell is reported) is
+     * the same as that of one sequential scan.
+     */
+    private Scan scanRows() {
+        int stripeCount = 1;
+        if ((long) rows * cols >= PARALLEL_PARSE_THRESHOLD) {
+            stripeCount = Math.min(rows, 4 * ForkJoinPool.getCommonPoolParallelism());
+        }
+        if (stripeCount <= 1) {
+            return scanStripe(0, rows);
+        }
+        int stripeRows = (rows + stripeCount - 1) / stripeCount;
+        Scan[] stripes = IntStream.range(0, stripeCount).parallel()
+                .mapToObj(stripe -> scanStripe(stripe * stripeRows, Math.min(rows, (stripe + 1) * stripeRows)))
+                .toArray(Scan[]::new);
+        Scan merged = stripes[0];
+        for (int stripe = 1; stripe < stripeCount && merged.invalid == -1; stripe++) {
+            merged.merge(stripes[stripe]);
+        }
+        return merged;
+    }
 
-        // Find the initial and goal state in the given maze, and then
-        // store in fields once found
-        for (int row = 0; row < rows; row++) {
-            for (int col = 0; col < cols; col++) {
-                char cell = maze[row].charAt(col);
-                switch (cell) {
-                    case 'I':
-                        foundInitial = new MazeState(col, row, null);
-                        break;
-                    case '1':
-                    case '2':
-                    case '3':
-                        keys.add(new MazeState(col, row, "" + cell));
-                        foundGoal = new MazeState(col, row, "" + cell);
-                        break;
-                    case '.':
-                    case 'X':
-                        break;
-                    case 'M':
-                        break;
-                    default:
-                        throw new IllegalArgumentException("Maze formatted invalidly");
+    private Scan scanCells(int[] cells) {
+        Scan scan = new Scan();
+        for (int cell : cells) {
+            if (!scan.accept(cell, grid.getTile(cell / cols, cell % cols), terrain)) {
+                break;
+            }
+        }
+        return scan;
+    }
+
+    /**
+     * Scans only the open cells of a run-length grid, by id; its walls are
+     * dropped cells that all read back as one glyph, which must be a wall here.
+     */
+    private Scan scanOpenCells() {
+        char wall = sparse.getWallTile();
+        if (!terrain.isKnown(wall) || terrain.isPassable(wall)) {
+            throw new IllegalArgumentException("Maze formatted invalidly: the walls of the run-length grid ('" + wall
+                    + "') are not walls in this terrain");
+        }
+        Scan scan = new Scan();
+        for (int id = 0; id < cellCount; id++) {
+            char tile = sparse.getOpenTile(id);
+            if (!scan.accept(sparse.getOpenCell(id), tile, terrain)) {
+                break;
+            }
+            cellCosts[id] = (byte) terrain.getCost(tile);
+            if (cellEntries != null) {
+                cellEntries[id] = (byte) terrain.getEntryMask(tile);
+            }
+        }
+        return scan;
+    }
+
+    private Scan scanStripe(int fromRow, int toRow) {
+        Scan scan = new Scan();
+        for (int row = fromRow; row < toRow; row++) {
+            for (int col = 0, cell = row * cols; col < cols; col++, cell++) {
+                char tile = grid.getTile(row, col);
+                if (!scan.accept(cell, tile, terrain)) {
+                    return scan;
+                }
+                int index = (tileCols == 0) ? cell : tiledIndex(row, col);
+                if (cellCosts != null) {
+                    cellCosts[index] = (byte) terrain.getCost(tile);
+                }
+                if (cellEntries != null) {
+                    cellEntries[index] = (byte) terrain.getEntryMask(tile);
                 }
             }
         }
-        INITIAL_STATE = foundInitial;
-        KEY_PIECES = keys;
-        this.GOAL_STATE = foundGoal;
+        return scan;
+    }
+
+    /**
+     * What one scan over some cells of the grid found: the last initial state,
+     * every key in the order met, and the first tile that is not a glyph of the
+     * terrain table, all as packed cell indices.
+     */
+    private static class Scan {
+
+        int initial = -1, invalid = -1, keyCount;
+        int[] keys = new int[4];
+        char invalidTile;
+
+        /**
+         * Records the given tile, returning false if it is invalid.
+         */
+        boolean accept(int cell, char tile, TerrainTable terrain) {
+            if (tile == 'I') {
+                initial = cell;
+            } else if (tile >= '1' && tile <= '3') {
+                addKey(cell);
+            } else if (!terrain.isKnown(tile)) {
+                invalid = cell;
+                invalidTile = tile;
+                return false;
+            }
+            return true;
+        }
+
+        void addKey(int cell) {
+            if (keyCount == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * keyCount);
+            }
+            keys[keyCount++] = cell;
+        }
+
+        /**
+         * Appends the findings of the scan of the cells that follow this one's.
+         */
+        void merge(Scan next) {
+            if (next.initial != -1) {
+                initial = next.initial;
+            }
+            for (int k = 0; k < next.keyCount; k++) {
+                addKey(next.keys[k]);
+            }
+            invalid = next.invalid;
+            invalidTile = next.invalidTile;
+        }
+
     }
 
     // Methods
@@ -112,6 +372,421 @@ public class MazeProblem {
         return this.GOAL_STATE;
     }
 
+    /**
+     * Returns the number of rows in the maze.
+     * 
+     * @return The maze's row count.
+     */
+    public int getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Returns the number of columns in the maze.
+     * 
+     * @return The maze's column count.
+     */
+    public int getCols() {
+        return this.cols;
+    }
+
+    /**
+     * Returns whether the given cell lies within the maze and is not a wall.
+     * 
+     * @param row Row of the cell.
+     * @param col Column of the cell.
+     * @return true if the cell can be occupied, false otherwise.
+     */
+    public boolean isOpen(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            return false;
+        }
+        if (cellCosts == null) {
+            return terrain.isPassable(grid.getTile(row, col));
+        }
+        int index = getCellIndex(row, col);
+        return index != -1 && cellCosts[index] != 0;
+    }
+
+    /**
+     * Returns whether the given cell can be entered by the action with the given
+     * index: it must be open, and if it is one-way terrain, the action must be
+     * the one it allows.
+     * 
+     * @param row Row of the cell.
+     * @param col Column of the cell.
+     * @param dir Index of the action entering the cell, in the order "U", "D",
+     *            "L", "R".
+     * @return true if the move into the cell is legal, false otherwise.
+     */
+    public boolean canEnter(int row, int col, int dir) {
+        if (!isOpen(row, col)) {
+            return false;
+        }
+        if (!oneWay) {
+            return true;
+        }
+        int entries = (cellEntries == null) ? terrain.getEntryMask(grid.getTile(row, col))
+                : cellEntries[getCellIndex(row, col)];
+        return (entries & (1 << dir)) != 0;
+    }
+
+    /**
+     * Returns the number of cell indices of this maze, by which per-cell and
+     * per-state tables are sized: every cell of the grid (padded out to whole
+     * tiles in {@link CellLayout#TILED} order), or only the open ones for a
+     * {@link RunLengthMazeGrid}. Indices of padding cells are never open.
+     * 
+     * @return The cell index count.
+     */
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    /**
+     * Returns the index of the given cell in per-cell and per-state tables:
+     * <code>row * cols + col</code>, its place in {@link CellLayout#TILED}
+     * order, or the open-cell id for a {@link RunLengthMazeGrid}.
+     * 
+     * @param row Row of the cell; must lie within the maze.
+     * @param col Column of the cell; must lie within the maze.
+     * @return The cell index, or -1 for a wall that has none.
+     */
+    public int getCellIndex(int row, int col) {
+        if (sparse != null) {
+            return sparse.getOpenId(row, col);
+        }
+        return (tileCols == 0) ? row * cols + col : tiledIndex(row, col);
+    }
+
+    /**
+     * Returns the row of the cell with the given index.
+     * 
+     * @param index A cell index, as returned by {@link #getCellIndex}.
+     * @return The cell's row.
+     */
+    public int getCellRow(int index) {
+        if (tileCols != 0) {
+            return ((index >>> CellLayout.TILE_AREA_SHIFT) / tileCols << CellLayout.TILE_SHIFT)
+                    | ((index >>> CellLayout.TILE_SHIFT) & (CellLayout.TILE_SIDE - 1));
+        }
+        return ((sparse == null) ? index : sparse.getOpenCell(index)) / cols;
+    }
+
+    /**
+     * Returns the column of the cell with the given index.
+     * 
+     * @param index A cell index, as returned by {@link #getCellIndex}.
+     * @return The cell's column.
+     */
+    public int getCellCol(int index) {
+        if (tileCols != 0) {
+            return ((index >>> CellLayout.TILE_AREA_SHIFT) % tileCols << CellLayout.TILE_SHIFT)
+                    | (index & (CellLayout.TILE_SIDE - 1));
+        }
+        return ((sparse == null) ? index : sparse.getOpenCell(index)) % cols;
+    }
+
+    /**
+     * Returns the order this maze's cells are numbered in.
+     * 
+     * @return The CellLayout; always ROW_MAJOR for a {@link RunLengthMazeGrid}.
+     */
+    public CellLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Returns whether the cell indices are exactly <code>row * cols + col</code>,
+     * as algorithms that split the grid into stripes of rows assume.
+     */
+    boolean isRowMajorDense() {
+        return sparse == null && tileCols == 0;
+    }
+
+    /**
+     * Returns the index of the given cell in TILED order.
+     */
+    private int tiledIndex(int row, int col) {
+        int tile = (row >>> CellLayout.TILE_SHIFT) * tileCols + (col >>> CellLayout.TILE_SHIFT);
+        return (tile << CellLayout.TILE_AREA_SHIFT) | ((row & (CellLayout.TILE_SIDE - 1)) << CellLayout.TILE_SHIFT)
+                | (col & (CellLayout.TILE_SIDE - 1));
+    }
+
+    /**
+     * Returns the index of the given cell if the action with the given index can
+     * enter it from the cell with index <code>from</code>, as {@link #canEnter}
+     * decides, so that searches pay for a single cell lookup per move. Over a
+     * run-length grid, where open cells are numbered in row-major order, a
+     * horizontal move leads to the neighboring id if to any open cell at all,
+     * which saves even that lookup.
+     * 
+     * @return The cell index, or -1 if the move is illegal.
+     */
+    int enterIndex(int from, int row, int col, int dir) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            return -1;
+        }
+        if (cellCosts == null) {
+            return canEnter(row, col, dir) ? getCellIndex(row, col) : -1;
+        }
+        int index;
+        if (sparse == null) {
+            index = (tileCols == 0) ? row * cols + col : tiledIndex(row, col);
+        } else if (ACTION_COLS[dir] != 0) {
+            index = from + ACTION_COLS[dir];
+            if (index < 0 || index >= cellCount || sparse.getOpenCell(index) != row * cols + col) {
+                return -1;
+            }
+        } else {
+            index = sparse.getOpenId(row, col);
+        }
+        if (index == -1 || cellCosts[index] == 0 || (cellEntries != null && (cellEntries[index] & (1 << dir)) == 0)) {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the cost of entering the open cell with the given index.
+     */
+    int getCostAt(int index) {
+        if (cellCosts == null) {
+            return getCost(getCellRow(index), getCellCol(index));
+        }
+        return cellCosts[index] & 0xFF;
+    }
+
+    /**
+     * Returns the number of the key at the cell with the given index, as
+     * {@link #getKeyIndex} does, or -1 if it holds none.
+     */
+    int getKeyIndexAt(int index) {
+        for (int k = 0; k < KEY_INDICES.length; k++) {
+            if (KEY_INDICES[k] == index) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the terrain table this maze's tiles are read with.
+     * 
+     * @return The TerrainTable.
+     */
+    public TerrainTable getTerrain() {
+        return terrain;
+    }
+
+    /**
+     * Returns whether this maze's terrain has one-way glyphs, in which case a
+     * move between two cells may be legal one way but not the other, and
+     * engines that search backwards from the keys cannot be used.
+     * 
+     * @return true if the terrain table has one-way glyphs.
+     */
+    public boolean hasOneWayTerrain() {
+        return oneWay;
+    }
+
+    /**
+     * Returns the largest cost of entering any cell, per the terrain table.
+     * 
+     * @return The largest single-move cost.
+     */
+    public int getMaxCost() {
+        return maxCost;
+    }
+
+    /**
+     * Returns the tile at the given cell of the maze, e.g. 'X' or 'M'.
+     * 
+     * @param row Row of the cell.
+     * @param col Column of the cell.
+     * @return The tile character.
+     */
+    public char getTile(int row, int col) {
+        return grid.getTile(row, col);
+    }
+
+    /**
+     * Returns the canonical MazeState of the given cell, carrying the cell's key
+     * piece if it holds one. Repeated calls for the same cell return the same
+     * instance, so callers that work with MazeStates need not allocate their
+     * own.
+     * 
+     * @param row Row of the cell; must lie within the maze.
+     * @param col Column of the cell; must lie within the maze.
+     * @return The MazeState of that cell.
+     */
+    public MazeState getState(int row, int col) {
+        MazeState[] table = states;
+        if (table == null) {
+            if (cellCount > INTERN_LIMIT) {
+                return createState(row, col);
+            }
+            synchronized (this) {
+                if (states == null) {
+                    states = new MazeState[cellCount];
+                }
+                table = states;
+            }
+        }
+        // Racing threads may each create the state of a cell, but MazeStates are
+        // immutable and equal, so whichever lands in the table is as good
+        int cell = getCellIndex(row, col);
+        if (cell == -1) {
+            return createState(row, col);
+        }
+        MazeState state = table[cell];
+        if (state == null) {
+            state = createState(row, col);
+            table[cell] = state;
+        }
+        return state;
+    }
+
+    private MazeState createState(int row, int col) {
+        if (INITIAL_STATE != null && INITIAL_STATE.row() == row && INITIAL_STATE.col() == col) {
+            return INITIAL_STATE;
+        }
+        char tile = grid.getTile(row, col);
+        if (tile >= '1' && tile <= '3') {
+            for (MazeState key : KEY_PIECES) {
+                if (key.row() == row && key.col() == col) {
+                    return key;
+                }
+            }
+        }
+        return new MazeState(col, row, null);
+    }
+
+    /**
+     * Returns whether every key might be reachable from the initial state. For
+     * grids held in memory this is exact: answered from the component labeling,
+     * or, if the terrain has one-way glyphs, by flooding the cells reachable
+     * from the initial state and from each key. For lazily loaded grids it is
+     * always true, since either would load the whole maze.
+     * 
+     * @return false only if some key is certainly unreachable.
+     */
+    public boolean canReachAllKeys() {
+        if (!grid.isResident()) {
+            return true;
+        }
+        if (!oneWay) {
+            return getComponents().allConnected(INITIAL_STATE, KEY_PIECES);
+        }
+        if (keysInOrder == null) {
+            keysInOrder = keysReachableInOrder();
+        }
+        return keysInOrder;
+    }
+
+    /**
+     * Returns whether one walk from the initial state can collect every key when
+     * moves are not all reversible. Reachability orders cells, so such a walk
+     * exists exactly when the initial state reaches every key and, of any two
+     * keys, one reaches the other: the keys can then be visited in that order.
+     */
+    private boolean keysReachableInOrder() {
+        int n = KEY_CELLS.length;
+        int[] keys = new int[n];
+        for (int k = 0; k < n; k++) {
+            keys[k] = getCellIndex(KEY_CELLS[k] / cols, KEY_CELLS[k] % cols);
+        }
+        long[] fromInitial = flood(getCellIndex(INITIAL_STATE.row(), INITIAL_STATE.col()));
+        long[][] fromKeys = new long[n][];
+        for (int k = 0; k < n; k++) {
+            if ((fromInitial[keys[k] >>> 6] & (1L << keys[k])) == 0) {
+                return false;
+            }
+            fromKeys[k] = flood(keys[k]);
+        }
+        for (int a = 0; a < n; a++) {
+            for (int b = a + 1; b < n; b++) {
+                if ((fromKeys[a][keys[b] >>> 6] & (1L << keys[b])) == 0
+                        && (fromKeys[b][keys[a] >>> 6] & (1L << keys[a])) == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the set of cells reachable from the cell with the given index by
+     * legal moves, as a bitset over cell indices.
+     */
+    private long[] flood(int source) {
+        long[] seen = new long[(cellCount + 63) >>> 6];
+        int[] stack = new int[64];
+        int size = 0;
+        seen[source >>> 6] |= 1L << source;
+        stack[size++] = source;
+        while (size > 0) {
+            int cell = stack[--size], row = getCellRow(cell), col = getCellCol(cell);
+            for (int dir = 0; dir < ACTIONS.length; dir++) {
+                int nRow = row + ACTION_ROWS[dir], nCol = col + ACTION_COLS[dir];
+                if (!canEnter(nRow, nCol, dir)) {
+                    continue;
+                }
+                int next = getCellIndex(nRow, nCol);
+                if ((seen[next >>> 6] & (1L << next)) == 0) {
+                    seen[next >>> 6] |= 1L << next;
+                    if (size == stack.length) {
+                        stack = Arrays.copyOf(stack, size * 2);
+                    }
+                    stack[size++] = next;
+                }
+            }
+        }
+        return seen;
+    }
+
+    /**
+     * Returns the connected-component labeling of this maze's open cells,
+     * computing it on first use and keeping it for any later reachability
+     * queries. The labeling is published safely to every thread sharing this
+     * maze; threads that ask at once may each compute it.
+     * 
+     * @return The MazeComponents of this maze.
+     */
+    public MazeComponents getComponents() {
+        MazeComponents result = components;
+        if (result == null) {
+            PathfinderEvents.Preprocess event = new PathfinderEvents.Preprocess();
+            event.begin();
+            long start = System.nanoTime();
+            result = MazeComponents.label(this);
+            components = result;
+            COMPONENTS_NANOS.record(System.nanoTime() - start);
+            event.phase = "components";
+            event.cells = (long) rows * cols;
+            event.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether the maze's grid is held in memory, rather than loaded
+     * lazily as it is read.
+     */
+    boolean isResident() {
+        return grid.isResident();
+    }
+
+    /**
+     * Returns the profile of this maze's shape, computed when the maze was
+     * loaded.
+     * 
+     * @return The MazeProfile of this maze.
+     */
+    public MazeProfile getProfile() {
+        return profile;
+    }
+
     /**
      * Returns the Set of MazeStates containing the keys in the maze.
      * 
@@ -121,6 +796,42 @@ public class MazeProblem {
         return this.KEY_PIECES;
     }
 
+    /**
+     * Returns the number of keys in the maze; searches that track collected keys
+     * as a bitmask use one bit per key.
+     * 
+     * @return The key count.
+     */
+    public int getKeyCount() {
+        return KEY_CELLS.length;
+    }
+
+    /**
+     * Returns the packed cell index (<code>row * cols + col</code>) of the key with
+     * the given index. Keys are indexed in row-major order.
+     * 
+     * @param index Index of the key, from 0 to {@link #getKeyCount()} - 1.
+     * @return The packed cell index of that key.
+     */
+    public int getKeyCell(int index) {
+        return KEY_CELLS[index];
+    }
+
+    /**
+     * Returns the index of the key at the given cell, if any.
+     * 
+     * @param row Row of the cell.
+     * @param col Column of the cell.
+     * @return The key's index, or -1 if the cell holds no key.
+     */
+    public int getKeyIndex(int row, int col) {
+        char tile = grid.getTile(row, col);
+        if (tile < '1' || tile > '3') {
+            return -1;
+        }
+        return Arrays.binarySearch(KEY_CELLS, row * cols + col);
+    }
+
     /**
      * Returns the Set of String tiles representing the different key pieces. i.e.,
      * <code>{"1", "2", "3"}</code>
@@ -139,12 +850,23 @@ public class MazeProblem {
      * @return The cost associated with moving into the given state.
      */
     public int getCost(MazeState state) {
-        switch (maze[state.row()].charAt(state.col())) {
-            case 'M':
-                return 3;
-            default:
-                return 1;
+        return getCost(state.row(), state.col());
+    }
+
+    /**
+     * Returns the cost associated with entering the given cell, without needing a
+     * MazeState for it.
+     * 
+     * @param row Row of the cell.
+     * @param col Column of the cell.
+     * @return The cost associated with moving into the given cell.
+     */
+    public int getCost(int row, int col) {
+        if (cellCosts == null) {
+            return terrain.getCost(grid.getTile(row, col));
         }
+        int index = getCellIndex(row, col);
+        return (index == -1) ? 0 : cellCosts[index] & 0xFF;
     }
 
     /**
@@ -160,22 +882,16 @@ public class MazeProblem {
     public Map<String, MazeState> getTransitions(MazeState state) {
         // Store transitions as a Map between actions ("U", "D", ...) and
         // the MazeStates that they result in from state
-        Map<String, MazeState> result = new HashMap<>();
+        Map<String, MazeState> result = new HashMap<>(8);
 
-        // For each of the possible directions (stored in TRANS_MAP), test
-        // to see if it is a valid transition
-        for (Map.Entry<String, MazeState> action : TRANS_MAP.entrySet()) {
-            MazeState actionMod = action.getValue(), newState = new MazeState(state.col(), state.row(), null);
-            newState = newState.add(actionMod);
-            String tile = "" + this.maze[newState.row()].charAt(newState.col());
-            String keyState = (KEY_TILES.contains(tile)) ? tile : null;
-
-            // If the given state *is* a valid transition (i.e., within
-            // map bounds and no wall at the position)...
-            if (newState.row() >= 0 && newState.row() < rows && newState.col() >= 0 && newState.col() < cols
-                    && maze[newState.row()].charAt(newState.col()) != 'X') {
-                // ...then add it to the result!
-                result.put(action.getKey(), new MazeState(newState.col(), newState.row(), keyState));
+        // For each of the possible directions, test to see if it is a valid
+        // transition (i.e., within map bounds, no wall at the position, and not
+        // one-way terrain facing the other way), and if so add the canonical
+        // state it leads to
+        for (int dir = 0; dir < ACTIONS.length; dir++) {
+            int row = state.row() + ACTION_ROWS[dir], col = state.col() + ACTION_COLS[dir];
+            if (canEnter(row, col, dir)) {
+                result.put(ACTIONS[dir], getState(row, col));
             }
         }
         return result;
@@ -198,30 +914,39 @@ public class MazeProblem {
                     "Tried to test a solution but the solution was null (you said there was no solution)");
         }
 
-        // Update the "moving state" that begins at the start and is modified by the
-        // transitions
-        MazeState movingState = new MazeState(INITIAL_STATE.col(), INITIAL_STATE.row(), null);
-        Set<String> collectedKeys = new HashSet<>();
-        int cost = 0;
+        long start = System.nanoTime();
+
+        // Walk the position that begins at the start and is modified by the
+        // transitions, tracking the key tiles collected as one bit each
+        int row = INITIAL_STATE.row(), col = INITIAL_STATE.col();
+        int collectedKeys = 0, cost = 0;
         int[] result = { 0, -1 };
 
-        // For each action, modify the movingState, and then check that we have landed
-        // in
-        // a legal position in this maze
+        // For each action, move, and then check that we have landed in a legal
+        // position in this maze
         for (String action : possibleSoln) {
-            MazeState actionMod = TRANS_MAP.get(action);
-            movingState = movingState.add(actionMod);
-            String tile = "" + maze[movingState.row()].charAt(movingState.col());
-            if (tile.equals("X")) {
+            int dir = Arrays.asList(ACTIONS).indexOf(action);
+            if (dir != -1) {
+                row += ACTION_ROWS[dir];
+                col += ACTION_COLS[dir];
+            }
+            if (dir == -1 || !canEnter(row, col, dir)) {
+                VALIDATE_FAILURES.increment();
+                VALIDATE_NANOS.record(System.nanoTime() - start);
                 return result;
             }
-            if (KEY_TILES.contains(tile)) {
-                collectedKeys.add(tile);
+            char tile = grid.getTile(row, col);
+            if (tile >= '1' && tile <= '3') {
+                collectedKeys |= 1 << (tile - '1');
             }
-            cost += getCost(movingState);
+            cost += getCost(row, col);
         }
-        result[0] = collectedKeys.equals(KEY_TILES) ? 1 : 0;
+        result[0] = (collectedKeys == (1 << KEY_TILES.size()) - 1) ? 1 : 0;
         result[1] = cost;
+        if (result[0] == 0) {
+            VALIDATE_FAILURES.increment();
+        }
+        VALIDATE_NANOS.record(System.nanoTime() - start);
         return result;
     }
 
@@ -0,0 +1,209 @@
+/*
+ Filename: MazeProfile.java
+ Description: Summary statistics of a MazeProblem's grid used to choose the search engine to solve it with.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Cheap summary of the shape of a maze, gathered in one pass over its cells:
+ * its size, how much of it is open, how much of the open part is mud, how many
+ * keys it has, and how corridor-like it is. The {@link EnginePlanner} picks an
+ * engine from these numbers.
+ * <p>
+ * Grids that are not held in memory are not read in full, which would load
+ * every chunk of them: a few small windows spread evenly across the grid are
+ * read instead, and the counts are estimated from those.
+ */
+public class MazeProfile {
+
+    // Fields
+    // -----------------------------------------------------------------------------
+    private final int rows, cols, keyCount;
+    private final long openCells, mudCells, corridorCells;
+    private final boolean sampled;
+
+    /**
+     * Number of windows sampled along each side of a grid that is not held in
+     * memory, and the side of each square window, in cells.
+     */
+    public static final int SAMPLE_WINDOWS = 4, WINDOW_SIDE = 32;
+
+    // Constructor
+    // -----------------------------------------------------------------------------
+
+    private MazeProfile(int rows, int cols, int keyCount, long openCells, long mudCells, long corridorCells,
+            boolean sampled) {
+        this.rows = rows;
+        this.cols = cols;
+        this.keyCount = keyCount;
+        this.openCells = openCells;
+        this.mudCells = mudCells;
+        this.corridorCells = corridorCells;
+        this.sampled = sampled;
+    }
+
+    // Methods
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Profiles the given MazeProblem in one pass over its cells, or over sampled
+     * windows of them if its grid is not held in memory and is bigger than the
+     * windows together.
+     *
+     * @param problem The MazeProblem to profile.
+     * @return The MazeProfile.
+     */
+    public static MazeProfile of(MazeProblem problem) {
+        int rows = problem.getRows(), cols = problem.getCols();
+        long cells = (long) rows * cols, window = (long) WINDOW_SIDE * WINDOW_SIDE;
+        if (problem.isResident() || cells <= SAMPLE_WINDOWS * SAMPLE_WINDOWS * window) {
+            // Big grids are counted in parallel stripes of rows, as they are parsed
+            int stripeCount = (cells >= MazeProblem.PARALLEL_PARSE_THRESHOLD)
+                    ? Math.min(rows, 4 * ForkJoinPool.getCommonPoolParallelism()) : 1;
+            int stripeRows = (rows + stripeCount - 1) / Math.max(1, stripeCount);
+            long[] counts = IntStream.range(0, Math.max(1, stripeCount)).parallel().mapToObj(stripe -> {
+                long[] stripeCounts = new long[3];
+                count(problem, Math.min(rows, stripe * stripeRows), Math.min(rows, (stripe + 1) * stripeRows), 0,
+                        cols, stripeCounts);
+                return stripeCounts;
+            }).reduce(new long[3], (a, b) -> new long[] { a[0] + b[0], a[1] + b[1], a[2] + b[2] });
+            return new MazeProfile(rows, cols, problem.getKeyCount(), counts[0], counts[1], counts[2], false);
+        }
+
+        // Spread the windows evenly, from one edge of the grid to the other, and
+        // scale what they hold up to the whole grid
+        int windowRows = Math.min(WINDOW_SIDE, rows), windowCols = Math.min(WINDOW_SIDE, cols);
+        long[] counts = new long[3];
+        for (int i = 0; i < SAMPLE_WINDOWS; i++) {
+            int fromRow = (int) ((long) (rows - windowRows) * i / (SAMPLE_WINDOWS - 1));
+            for (int j = 0; j < SAMPLE_WINDOWS; j++) {
+                int fromCol = (int) ((long) (cols - windowCols) * j / (SAMPLE_WINDOWS - 1));
+                count(problem, fromRow, fromRow + windowRows, fromCol, fromCol + windowCols, counts);
+            }
+        }
+        double scale = (double) cells / (SAMPLE_WINDOWS * SAMPLE_WINDOWS * windowRows * windowCols);
+        return new MazeProfile(rows, cols, problem.getKeyCount(), Math.round(counts[0] * scale),
+                Math.round(counts[1] * scale), Math.round(counts[2] * scale), true);
+    }
+
+    /**
+     * Adds the open, mud, and corridor cells of the given block of cells to the
+     * given counts, in that order. The costs of three rows at a time (with a
+     * border of one cell) are kept at hand, so that every cell is read once.
+     */
+    private static void count(MazeProblem problem, int fromRow, int toRow, int fromCol, int toCol, long[] counts) {
+        int width = toCol - fromCol + 2;
+        int[] above = readRow(problem, fromRow - 1, fromCol - 1, width, null),
+              here = readRow(problem, fromRow, fromCol - 1, width, null), below = null;
+        for (int row = fromRow; row < toRow; row++) {
+            below = readRow(problem, row + 1, fromCol - 1, width, below);
+            for (int i = 1; i < width - 1; i++) {
+                if (here[i] == 0) {
+                    continue;
+                }
+                counts[0]++;
+                if (here[i] > 1) {
+                    counts[1]++;
+                }
+                int neighbors = (above[i] != 0 ? 1 : 0) + (below[i] != 0 ? 1 : 0) + (here[i - 1] != 0 ? 1 : 0)
+                        + (here[i + 1] != 0 ? 1 : 0);
+                if (neighbors <= 2) {
+                    counts[2]++;
+                }
+            }
+            int[] free = above;
+            above = here;
+            here = below;
+            below = free;
+        }
+    }
+
+    /**
+     * Reads the entry costs of the given stretch of a row into the given array
+     * (or a new one if it is null), with 0 for walls and cells off the grid.
+     */
+    private static int[] readRow(MazeProblem problem, int row, int fromCol, int width, int[] into) {
+        int[] costs = (into == null) ? new int[width] : into;
+        boolean inside = row >= 0 && row < problem.getRows();
+        for (int i = 0; i < width; i++) {
+            int col = fromCol + i;
+            costs[i] = (inside && col >= 0 && col < problem.getCols()) ? problem.getCost(row, col) : 0;
+        }
+        return costs;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * @return The number of cells in the grid, open or not.
+     */
+    public long getCells() {
+        return (long) rows * cols;
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    public long getOpenCells() {
+        return openCells;
+    }
+
+    /**
+     * @return true if the counts are estimates from sampled windows of the grid
+     *         rather than exact.
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * @return The number of (cell, keys collected) states a full search may
+     *         visit: every open cell paired with every subset of the keys.
+     */
+    public long getStates() {
+        return openCells << keyCount;
+    }
+
+    /**
+     * @return The fraction of all cells that are open.
+     */
+    public double getOpenRatio() {
+        return (getCells() == 0) ? 0 : (double) openCells / getCells();
+    }
+
+    /**
+     * @return The fraction of open cells that cost more than 1 to enter.
+     */
+    public double getMudFraction() {
+        return (openCells == 0) ? 0 : (double) mudCells / openCells;
+    }
+
+    /**
+     * @return The fraction of open cells with at most two open neighbors, i.e.
+     *         that lie in corridors or dead ends rather than open rooms.
+     */
+    public double getCorridorRatio() {
+        return (openCells == 0) ? 0 : (double) corridorCells / openCells;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%dx%d, %d keys, open %.2f, mud %.2f, corridor %.2f%s", rows, cols,
+                keyCount, getOpenRatio(), getMudFraction(), getCorridorRatio(), sampled ? " (sampled)" : "");
+    }
+
+}
@@ -7,15 +7,13 @@
 
 package main.pathfinder.informed.trikey;
 
-import java.util.Objects;
-
 /**
  * Maze Pathfinding representation of a given state, i.e., an occupiable
  * position in the given maze.
  */
 public class MazeState {
 
-    private int col, row;
+    private final int col, row;
     private final String KEY_PIECE;
 
     /**
@@ -73,10 +71,7 @@ public class MazeState {
      * @return The new MazeState from adding the other's coords to this one.
      */
     public MazeState add(MazeState other) {
-        MazeState result = new MazeState(this.col, this.row, this.KEY_PIECE);
-        result.col += other.col;
-        result.row += other.row;
-        return result;
+        return new MazeState(this.col + other.col, this.row + other.row, this.KEY_PIECE);
     }
 
     @Override
@@ -85,14 +80,19 @@ public class MazeState {
             return true;
         }
 
-        return other.getClass() == this.getClass()
+        return other != null && other.getClass() == this.getClass()
                 ? this.row == ((MazeState) other).row && this.col == ((MazeState) other).col
                 : false;
     }
 
+    /**
+     * Hashes this state by its position alone, consistently with equals: the row
+     * and column packed into one int, which is unique for any maze with fewer
+     * than 65536 columns.
+     */
     @Override
     public int hashCode() {
-        return Objects.hash(this.col, this.row, this.KEY_PIECE);
+        return (this.row << 16) ^ this.col;
     }
 
     @Override
@@ -0,0 +1,141 @@
+/*
+ Filename: OffHeapStateTable.java
+ Description: StateTable stored outside of the Java heap in direct or memory-mapped ByteBuffers, for
+                state spaces far larger than the heap.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * StateTable stored outside of the Java heap. Each table (costs, frontier slots,
+ * parent moves, and the closed bitset) is split into segments of at most 1 GiB,
+ * since a single ByteBuffer can only address 2 GiB, and a packed state id is
+ * turned into a segment and an offset with a shift and a mask. Costs and slots
+ * are stored offset by one so that the all-zero contents of freshly allocated or
+ * sparse-file memory already mean "unreached" and "not in the frontier",
+ * leaving nothing to initialize up front.
+ * <p>
+ * Direct tables count against <code>-XX:MaxDirectMemorySize</code>; mapped
+ * tables are limited only by disk space and the address space.
+ */
+class OffHeapStateTable implements StateTable {
+
+    private static final int SEGMENT_SHIFT = 30, SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    private final ByteBuffer[] costs, slots, parents, closed;
+
+    private OffHeapStateTable(ByteBuffer[] costs, ByteBuffer[] slots, ByteBuffer[] parents, ByteBuffer[] closed) {
+        this.costs = costs;
+        this.slots = slots;
+        this.parents = parents;
+        this.closed = closed;
+    }
+
+    /**
+     * Allocates a table for the given number of states in direct memory.
+     */
+    static OffHeapStateTable allocate(long states) {
+        return new OffHeapStateTable(allocateSegments(states * 4), allocateSegments(states * 4),
+                allocateSegments(states), allocateSegments((states + 7) >>> 3));
+    }
+
+    private static ByteBuffer[] allocateSegments(long bytes) {
+        ByteBuffer[] result = new ByteBuffer[segmentCount(bytes)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ByteBuffer.allocateDirect(segmentLength(bytes, i)).order(ByteOrder.nativeOrder());
+        }
+        return result;
+    }
+
+    /**
+     * Maps a table for the given number of states onto the given file, laying the
+     * four tables out back to back. The file is truncated first so that its
+     * contents read as zero.
+     */
+    static OffHeapStateTable map(Path file, long states) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long costBytes = states * 4, parentBytes = states, closedBytes = (states + 7) >>> 3;
+            ByteBuffer[] costs = mapSegments(channel, 0, costBytes);
+            ByteBuffer[] slots = mapSegments(channel, costBytes, costBytes);
+            ByteBuffer[] parents = mapSegments(channel, 2 * costBytes, parentBytes);
+            ByteBuffer[] closed = mapSegments(channel, 2 * costBytes + parentBytes, closedBytes);
+            return new OffHeapStateTable(costs, slots, parents, closed);
+        }
+    }
+
+    private static ByteBuffer[] mapSegments(FileChannel channel, long offset, long bytes) throws IOException {
+        ByteBuffer[] result = new ByteBuffer[segmentCount(bytes)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = channel.map(FileChannel.MapMode.READ_WRITE, offset + ((long) i << SEGMENT_SHIFT),
+                    segmentLength(bytes, i)).order(ByteOrder.nativeOrder());
+        }
+        return result;
+    }
+
+    private static int segmentCount(long bytes) {
+        return (int) Math.max(1, (bytes + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    }
+
+    private static int segmentLength(long bytes, int segment) {
+        return (int) Math.min(1L << SEGMENT_SHIFT, bytes - ((long) segment << SEGMENT_SHIFT));
+    }
+
+    @Override
+    public int getCost(long id) {
+        long offset = id << 2;
+        int stored = costs[(int) (offset >>> SEGMENT_SHIFT)].getInt((int) offset & SEGMENT_MASK);
+        return stored == 0 ? Integer.MAX_VALUE : stored - 1;
+    }
+
+    @Override
+    public void setCost(long id, int cost) {
+        long offset = id << 2;
+        costs[(int) (offset >>> SEGMENT_SHIFT)].putInt((int) offset & SEGMENT_MASK, cost + 1);
+    }
+
+    @Override
+    public int getParent(long id) {
+        return parents[(int) (id >>> SEGMENT_SHIFT)].get((int) id & SEGMENT_MASK);
+    }
+
+    @Override
+    public void setParent(long id, int move) {
+        parents[(int) (id >>> SEGMENT_SHIFT)].put((int) id & SEGMENT_MASK, (byte) move);
+    }
+
+    @Override
+    public boolean isClosed(long id) {
+        long offset = id >>> 3;
+        byte bits = closed[(int) (offset >>> SEGMENT_SHIFT)].get((int) offset & SEGMENT_MASK);
+        return (bits & (1 << (id & 7))) != 0;
+    }
+
+    @Override
+    public void setClosed(long id) {
+        long offset = id >>> 3;
+        ByteBuffer segment = closed[(int) (offset >>> SEGMENT_SHIFT)];
+        int index = (int) offset & SEGMENT_MASK;
+        segment.put(index, (byte) (segment.get(index) | (1 << (id & 7))));
+    }
+
+    @Override
+    public int getQueueSlot(long id) {
+        long offset = id << 2;
+        return slots[(int) (offset >>> SEGMENT_SHIFT)].getInt((int) offset & SEGMENT_MASK) - 1;
+    }
+
+    @Override
+    public void setQueueSlot(long id, int slot) {
+        long offset = id << 2;
+        slots[(int) (offset >>> SEGMENT_SHIFT)].putInt((int) offset & SEGMENT_MASK, slot + 1);
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ Filename: PackedPath.java
+ Description: Compact encoding of solution paths as two bits per move.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.util.*;
+
+/**
+ * Packs a list of actions (<code>"U", "D", "L", "R"</code>) into two bits per
+ * move, four moves to a byte, with the first move in the lowest bits. The move
+ * count has to be kept alongside the bytes, since the last byte may be partly
+ * unused.
+ */
+public class PackedPath {
+
+    private PackedPath() {
+    }
+
+    /**
+     * Packs the given actions.
+     *
+     * @param moves A List of Strings representing actions of the format: ["R",
+     *              "R", "L", ...]
+     * @return The packed moves, <code>(moves.size() + 3) / 4</code> bytes long.
+     */
+    public static byte[] pack(List<String> moves) {
+        byte[] result = new byte[(moves.size() + 3) / 4];
+        int i = 0;
+        for (String move : moves) {
+            result[i >>> 2] |= direction(move) << ((i & 3) << 1);
+            i++;
+        }
+        return result;
+    }
+
+    /**
+     * Unpacks the given number of actions from the given bytes.
+     *
+     * @param packed The packed moves.
+     * @param count  The number of moves packed.
+     * @return A List of Strings representing actions of the format: ["R", "R",
+     *         "L", ...]
+     */
+    public static List<String> unpack(byte[] packed, int count) {
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(MazeProblem.ACTIONS[(packed[i >>> 2] >>> ((i & 3) << 1)) & 3]);
+        }
+        return result;
+    }
+
+    private static int direction(String move) {
+        for (int dir = 0; dir < MazeProblem.ACTIONS.length; dir++) {
+            if (MazeProblem.ACTIONS[dir].equals(move)) {
+                return dir;
+            }
+        }
+        throw new IllegalArgumentException("Unknown action " + move);
+    }
+
+}
@@ -0,0 +1,523 @@
+/*
+ Filename: ParallelPathfinder.java
+ Description: Hash-distributed parallel A* (HDA*) over (cell, collected keys) states, for spreading a
+                single large search across several cores.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hash-distributed parallel A* search. Every search state, a packed
+ * <code>(cell, keyMask)</code> id, is owned by exactly one worker thread chosen
+ * by hashing the id. Each worker keeps its own open list and table of best
+ * known costs, expands only the states it owns, and ships generated states to
+ * their owners in batches over lock-free queues. The search ends once every
+ * worker is idle with no batches in flight, at which point the best goal found
+ * is optimal: no open state anywhere could still lead to a cheaper one. If a
+ * worker fails, the others are stopped and its error is rethrown to the caller.
+ */
+public class ParallelPathfinder {
+
+    // Fields
+    // -----------------------------------------------------------------------------
+    private final MazeProblem problem;
+    private final int cols, keyShift, fullMask;
+    private final Worker[] workers;
+
+    // Cost of the best goal found so far, and its state id
+    private final AtomicInteger incumbent = new AtomicInteger(Integer.MAX_VALUE);
+    private long goalId = -1;
+
+    // Termination detection: batches sent but not yet processed, workers that are
+    // currently idle, and a counter bumped whenever a worker stops being idle
+    private final AtomicLong inFlight = new AtomicLong(), activity = new AtomicLong();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private volatile boolean done;
+
+    // The first error thrown by any worker, which stops the search
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    // Number of states buffered for another worker before the batch is shipped,
+    // and number of expansions between forced flushes of partial batches
+    private static final int BATCH_SIZE = 128, FLUSH_INTERVAL = 64;
+
+    /**
+     * Instruments the parallel engine records its solves in, under its name.
+     */
+    private static final PathfinderEvents.EngineMetrics ENGINE = PathfinderEvents.metrics("parallel");
+
+    // Constructor
+    // -----------------------------------------------------------------------------
+
+    private ParallelPathfinder(MazeProblem problem, int threads) {
+        this.problem = problem;
+        this.cols = problem.getCols();
+        this.keyShift = problem.getKeyCount();
+        this.fullMask = (1 << keyShift) - 1;
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i);
+        }
+    }
+
+    // Methods
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Given a MazeProblem, returns an optimal sequence of actions that collects
+     * every key, searching with the given number of worker threads.
+     *
+     * @param problem A MazeProblem that specifies the maze, actions, transitions.
+     * @param threads The number of worker threads to search with; at least 1.
+     * @return A List of Strings representing actions that solve the problem of the
+     *         format: ["R", "R", "L", ...], or null if there is no solution.
+     * @throws CancellationException If the calling thread is interrupted while
+     *                               waiting for the workers.
+     */
+    public static List<String> solve(MazeProblem problem, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Parallel search needs at least one thread, got " + threads);
+        }
+        PathfinderEvents.Solve event = new PathfinderEvents.Solve();
+        event.begin();
+        long start = System.nanoTime();
+        if (!problem.canReachAllKeys()) {
+            return PathfinderEvents.rejected(event, ENGINE, start);
+        }
+        ParallelPathfinder search = new ParallelPathfinder(problem, threads);
+        List<String> result = search.search();
+        long expansions = 0, frontierPeak = 0;
+        for (Worker worker : search.workers) {
+            expansions += worker.expansions;
+            frontierPeak += worker.open.peak;
+        }
+        return PathfinderEvents.solved(event, ENGINE, start, expansions, frontierPeak,
+                (result == null) ? -1 : search.incumbent.get(), result);
+    }
+
+    private List<String> search() {
+        MazeState initial = problem.getInitial();
+        long root = (long) (initial.row() * cols + initial.col()) << keyShift;
+        if (fullMask == 0) {
+            return new ArrayList<>();
+        }
+        workers[owner(root)].receive(root, -1, 0);
+
+        Thread[] threads = new Thread[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            threads[i] = new Thread(workers[i], "hda-worker-" + i);
+            threads[i].setDaemon(true);
+            threads[i].setUncaughtExceptionHandler((thread, error) -> {
+                failure.compareAndSet(null, error);
+                done = true;
+            });
+            threads[i].start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            done = true;
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for the parallel search");
+        }
+        Throwable error = failure.get();
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error != null) {
+            throw new IllegalStateException("Parallel search worker failed", error);
+        }
+        if (goalId == -1) {
+            return null;
+        }
+
+        // Every worker has stopped, so their tables can be read freely to follow the
+        // parent links from the goal back to the root
+        List<String> result = new ArrayList<>();
+        for (long id = goalId, parent; (parent = workers[owner(id)].states.parent(id)) != -1; id = parent) {
+            int cell = (int) (id >>> keyShift), from = (int) (parent >>> keyShift);
+            result.add(MazeProblem.ACTIONS[direction(from, cell)]);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Returns the index of the action that moves from one cell to an adjacent
+     * one.
+     */
+    private int direction(int from, int to) {
+        int dRow = to / cols - from / cols, dCol = to % cols - from % cols;
+        for (int dir = 0; dir < MazeProblem.ACTIONS.length; dir++) {
+            if (MazeProblem.ACTION_ROWS[dir] == dRow && MazeProblem.ACTION_COLS[dir] == dCol) {
+                return dir;
+            }
+        }
+        throw new IllegalStateException("Cells " + from + " and " + to + " are not adjacent");
+    }
+
+    /**
+     * Records a goal state reached at the given cost, keeping it if it beats the
+     * incumbent.
+     */
+    private synchronized void offerGoal(long id, int cost) {
+        if (cost < incumbent.get()) {
+            goalId = id;
+            incumbent.set(cost);
+        }
+    }
+
+    /**
+     * Returns true once the whole search has run dry. All workers must be idle
+     * with no batches in flight, and no worker may have woken up while that was
+     * being checked.
+     */
+    private boolean terminated() {
+        long before = activity.get();
+        return idleCount.get() == workers.length && inFlight.get() == 0 && activity.get() == before;
+    }
+
+    /**
+     * Returns the worker that owns the given state id.
+     */
+    private int owner(long id) {
+        return (int) ((mix(id) >>> 32) % workers.length);
+    }
+
+    /**
+     * Murmur3 64-bit finalizer; spreads packed state ids evenly across workers
+     * and hash table slots.
+     */
+    static long mix(long id) {
+        id ^= id >>> 33;
+        id *= 0xff51afd7ed558ccdL;
+        id ^= id >>> 33;
+        id *= 0xc4ceb9fe1a85ec53L;
+        id ^= id >>> 33;
+        return id;
+    }
+
+    /**
+     * A single HDA* worker, owning its own open list and cost table. Only the
+     * worker's own thread touches those; other workers reach it only through its
+     * inbox.
+     */
+    private class Worker implements Runnable {
+
+        final int index;
+        final ConcurrentLinkedQueue<long[]> inbox = new ConcurrentLinkedQueue<>();
+        final StateMap states = new StateMap();
+        final OpenList open = new OpenList();
+        final long[][] outbox;
+        final int[] outSize;
+        long expansions;
+
+        Worker(int index) {
+            this.index = index;
+            this.outbox = new long[workers.length][3 * BATCH_SIZE];
+            this.outSize = new int[workers.length];
+        }
+
+        @Override
+        public void run() {
+            int sinceFlush = 0;
+            while (!done) {
+                boolean received = drainInbox();
+                if (!open.isEmpty() && open.peekF() < incumbent.get()) {
+                    expand();
+                    if (++sinceFlush >= FLUSH_INTERVAL) {
+                        flushAll();
+                        sinceFlush = 0;
+                    }
+                    continue;
+                }
+                flushAll();
+                sinceFlush = 0;
+                if (!received) {
+                    idle();
+                }
+            }
+        }
+
+        /**
+         * Waits for a batch to arrive or for the search to terminate.
+         */
+        private void idle() {
+            idleCount.incrementAndGet();
+            for (int spins = 0; !done; spins++) {
+                if (!inbox.isEmpty()) {
+                    activity.incrementAndGet();
+                    idleCount.decrementAndGet();
+                    return;
+                }
+                if (terminated()) {
+                    done = true;
+                    return;
+                }
+                if (spins < 1000) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(10_000);
+                }
+            }
+        }
+
+        /**
+         * Receives every batch waiting in the inbox.
+         *
+         * @return true if any batch was received.
+         */
+        private boolean drainInbox() {
+            boolean received = false;
+            for (long[] batch; (batch = inbox.poll()) != null;) {
+                for (int i = 0; i < batch.length; i += 3) {
+                    receive(batch[i], batch[i + 1], (int) batch[i + 2]);
+                }
+                inFlight.decrementAndGet();
+                received = true;
+            }
+            return received;
+        }
+
+        /**
+         * Takes in a state reached at the given cost, opening it if that improves on
+         * its best known cost and could still beat the incumbent.
+         */
+        void receive(long id, long parent, int cost) {
+            int cell = (int) (id >>> keyShift);
+            int f = cost + Pathfinder.heuristic(problem, cell / cols, cell % cols, (int) id & fullMask);
+            if (f < incumbent.get() && states.improve(id, cost, parent)) {
+                open.push(id, cost, f);
+            }
+        }
+
+        /**
+         * Expands the best state in the open list, sending each child to its owner.
+         */
+        private void expand() {
+            long id = open.peekId();
+            int cost = open.peekG();
+            open.pop();
+            if (cost > states.cost(id)) {
+                return; // superseded by a cheaper path since it was opened
+            }
+            expansions++;
+            int mask = (int) id & fullMask, cell = (int) (id >>> keyShift);
+            if (mask == fullMask) {
+                offerGoal(id, cost);
+                return;
+            }
+            int row = cell / cols, col = cell % cols;
+            for (int dir = 0; dir < MazeProblem.ACTIONS.length; dir++) {
+                int nRow = row + MazeProblem.ACTION_ROWS[dir], nCol = col + MazeProblem.ACTION_COLS[dir];
+                if (!problem.canEnter(nRow, nCol, dir)) {
+                    continue;
+                }
+                int key = problem.getKeyIndex(nRow, nCol);
+                long child = ((long) (nRow * cols + nCol) << keyShift) | (key == -1 ? mask : mask | (1 << key));
+                int childCost = cost + problem.getCost(nRow, nCol);
+                int dest = owner(child);
+                if (dest == index) {
+                    receive(child, id, childCost);
+                    continue;
+                }
+                long[] batch = outbox[dest];
+                int size = outSize[dest];
+                batch[size] = child;
+                batch[size + 1] = id;
+                batch[size + 2] = childCost;
+                outSize[dest] = size + 3;
+                if (outSize[dest] == batch.length) {
+                    flush(dest);
+                }
+            }
+        }
+
+        private void flushAll() {
+            for (int dest = 0; dest < outbox.length; dest++) {
+                if (outSize[dest] > 0) {
+                    flush(dest);
+                }
+            }
+        }
+
+        /**
+         * Ships the batch buffered for the given worker. The in-flight count is
+         * raised before the batch becomes visible so that termination can never be
+         * detected while it is on its way.
+         */
+        private void flush(int dest) {
+            long[] batch = Arrays.copyOf(outbox[dest], outSize[dest]);
+            outSize[dest] = 0;
+            inFlight.incrementAndGet();
+            workers[dest].inbox.add(batch);
+        }
+
+    }
+
+    /**
+     * Open-addressing hash table from state id to best known cost and the parent
+     * state that cost was reached from.
+     */
+    private static class StateMap {
+
+        private static final long EMPTY = -1;
+        long[] ids = new long[1024], parents = new long[1024];
+        int[] costs = new int[1024];
+        int size;
+
+        StateMap() {
+            Arrays.fill(ids, EMPTY);
+        }
+
+        private int slot(long id) {
+            int mask = ids.length - 1, slot = (int) mix(id) & mask;
+            while (ids[slot] != EMPTY && ids[slot] != id) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        int cost(long id) {
+            int slot = slot(id);
+            return ids[slot] == EMPTY ? Integer.MAX_VALUE : costs[slot];
+        }
+
+        long parent(long id) {
+            return parents[slot(id)];
+        }
+
+        /**
+         * Records the given cost for the state if it is the first or the cheapest
+         * seen so far.
+         *
+         * @return true if the record was changed.
+         */
+        boolean improve(long id, int cost, long parent) {
+            int slot = slot(id);
+            if (ids[slot] == EMPTY) {
+                if (2 * (size + 1) > ids.length) {
+                    grow();
+                    slot = slot(id);
+                }
+                ids[slot] = id;
+                size++;
+            } else if (costs[slot] <= cost) {
+                return false;
+            }
+            costs[slot] = cost;
+            parents[slot] = parent;
+            return true;
+        }
+
+        private void grow() {
+            long[] oldIds = ids, oldParents = parents;
+            int[] oldCosts = costs;
+            ids = new long[oldIds.length * 2];
+            parents = new long[oldIds.length * 2];
+            costs = new int[oldIds.length * 2];
+            Arrays.fill(ids, EMPTY);
+            for (int i = 0; i < oldIds.length; i++) {
+                if (oldIds[i] != EMPTY) {
+                    int slot = slot(oldIds[i]);
+                    ids[slot] = oldIds[i];
+                    parents[slot] = oldParents[i];
+                    costs[slot] = oldCosts[i];
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Binary min-heap of (f, g, id) entries ordered by f, breaking ties in favor
+     * of the larger g (the state closer to a goal).
+     */
+    private static class OpenList {
+
+        long[] ids = new long[256];
+        int[] gs = new int[256], fs = new int[256];
+        int size, peak;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int peekF() {
+            return fs[0];
+        }
+
+        int peekG() {
+            return gs[0];
+        }
+
+        long peekId() {
+            return ids[0];
+        }
+
+        private boolean before(int f1, int g1, int f2, int g2) {
+            return f1 < f2 || (f1 == f2 && g1 > g2);
+        }
+
+        void push(long id, int g, int f) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                gs = Arrays.copyOf(gs, size * 2);
+                fs = Arrays.copyOf(fs, size * 2);
+            }
+            int i = size++;
+            peak = Math.max(peak, size);
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(f, g, fs[parent], gs[parent])) {
+                    break;
+                }
+                ids[i] = ids[parent];
+                gs[i] = gs[parent];
+                fs[i] = fs[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            gs[i] = g;
+            fs[i] = f;
+        }
+
+        void pop() {
+            size--;
+            long id = ids[size];
+            int g = gs[size], f = fs[size], i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && before(fs[child + 1], gs[child + 1], fs[child], gs[child])) {
+                    child++;
+                }
+                if (!before(fs[child], gs[child], f, g)) {
+                    break;
+                }
+                ids[i] = ids[child];
+                gs[i] = gs[child];
+                fs[i] = fs[child];
+                i = child;
+            }
+            ids[i] = id;
+            gs[i] = g;
+            fs[i] = f;
+        }
+
+    }
+
+}
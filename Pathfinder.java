@@ -8,14 +8,69 @@
 
 package main.pathfinder.informed.trikey;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
- * Maze Pathfinding algorithm that implements a basic, uninformed, breadth-first
- * tree search.
+ * Maze Pathfinding algorithm that implements a uniform-cost graph search over
+ * (cell, keys collected) states, with alternative engines for large problems.
  */
 public class Pathfinder {
 
+    /**
+     * Flag set on a state's parent move when that move collected a new key.
+     */
+    private static final int COLLECTED = 4;
+
+    /**
+     * Instruments the sequential engine records its solves in, under its name.
+     */
+    private static final PathfinderEvents.EngineMetrics ENGINE = PathfinderEvents.metrics("sequential");
+
+    /**
+     * The search engines that can solve a MazeProblem; all of them return optimal
+     * solutions.
+     */
+    public enum Engine {
+        /** Single-threaded best-first search. */
+        SEQUENTIAL,
+        /** Hash-distributed parallel A* over every available core. */
+        PARALLEL,
+        /** Iterative-deepening A* with a fixed-size transposition table. */
+        LOW_MEMORY,
+        /** Key distance fields plus a dynamic program over key visiting orders. */
+        PREPARED
+    }
+
+    /**
+     * Instruments the prepared engine records its solves in, under its name.
+     */
+    private static final PathfinderEvents.EngineMetrics PREPARED_ENGINE = PathfinderEvents.metrics("prepared");
+
+    /**
+     * Given a MazeProblem, returns a solution to the problem found by the given
+     * search engine.
+     * 
+     * @param problem A MazeProblem that specifies the maze, actions, transitions.
+     * @param engine  The Engine to search with.
+     * @return A List of Strings representing actions that solve the problem of the
+     *         format: ["R", "R", "L", ...], or null if there is no solution.
+     */
+    public static List<String> solve(MazeProblem problem, Engine engine) {
+        switch (engine) {
+            case PARALLEL:
+                return ParallelPathfinder.solve(problem, Runtime.getRuntime().availableProcessors());
+            case LOW_MEMORY:
+                return LowMemoryPathfinder.solve(problem);
+            case PREPARED:
+                return solvePrepared(problem);
+            default:
+                return solve(problem);
+        }
+    }
+
     /**
      * Given a MazeProblem, which specifies the actions and transitions available in
      * the search, returns a solution to the problem as a sequence of actions that
@@ -26,124 +81,255 @@ public class Pathfinder {
      *         format: ["R", "R", "L", ...]
      */
     public static List<String> solve(MazeProblem problem) {
+        return solve(problem, (ExpansionHeatmap) null);
+    }
+
+    /**
+     * Given a MazeProblem, returns a solution to the problem found by the
+     * sequential search, recording every state it expands into the given
+     * heatmap.
+     * 
+     * @param problem A MazeProblem that specifies the maze, actions, transitions.
+     * @param heatmap The ExpansionHeatmap to record into, or null to record
+     *                nothing; it must {@link ExpansionHeatmap#covers cover} the
+     *                problem.
+     * @return A List of Strings representing actions that solve the problem of the
+     *         format: ["R", "R", "L", ...], or null if there is no solution.
+     */
+    public static List<String> solve(MazeProblem problem, ExpansionHeatmap heatmap) {
+        ExpansionHeatmap.check(heatmap, problem);
+
+        // Reject the problem up front if any key is walled off from the initial
+        // state, rather than exhausting every reachable state to find that out
+        PathfinderEvents.Solve event = new PathfinderEvents.Solve();
+        event.begin();
+        long start = System.nanoTime();
+        if (!problem.canReachAllKeys()) {
+            return PathfinderEvents.rejected(event, ENGINE, start);
+        }
+        return search(problem, tableFor(problem), heatmap, event, start);
+    }
+
+    /**
+     * Solves the given problem by preparing its key distance fields and routing
+     * from the initial state, which pays off on large grids with few keys.
+     * Mazes with one-way terrain cannot be prepared, and are searched instead.
+     */
+    private static List<String> solvePrepared(MazeProblem problem) {
+        if (problem.hasOneWayTerrain()) {
+            return solve(problem);
+        }
+        PathfinderEvents.Solve event = new PathfinderEvents.Solve();
+        event.begin();
+        long start = System.nanoTime();
+        if (!problem.canReachAllKeys()) {
+            return PathfinderEvents.rejected(event, PREPARED_ENGINE, start);
+        }
+        PreparedMaze.Route route = new PreparedMaze(problem).route(problem.getInitial());
+        return PathfinderEvents.solved(event, PREPARED_ENGINE, start, 0, 0,
+                (route == null) ? -1 : route.getCost(), (route == null) ? null : new ArrayList<>(route.getMoves()));
+    }
+
+    /**
+     * Given a MazeProblem, prepares it and returns its solution as a stream of
+     * legs, one per key collected, published as soon as the visiting order is
+     * known and each leg is reconstructed, so a consumer can start on the first
+     * leg while later ones are still being walked back through the distance
+     * fields. Concatenating the legs' moves gives the path
+     * {@link Engine#PREPARED} would return.
+     * 
+     * @param problem  A MazeProblem that specifies the maze, actions, transitions;
+     *                 it must not have one-way terrain.
+     * @param executor The Executor to reconstruct and deliver legs on.
+     * @return A Publisher of the solution's legs, or null if there is no
+     *         solution.
+     * @throws IllegalArgumentException If the maze has one-way terrain.
+     */
+    public static Flow.Publisher<PreparedMaze.Leg> solveLegs(MazeProblem problem, Executor executor) {
+        if (problem.hasOneWayTerrain()) {
+            throw new IllegalArgumentException("Mazes with one-way terrain cannot be prepared");
+        }
+        if (!problem.canReachAllKeys()) {
+            return null;
+        }
+        PreparedMaze.Route route = new PreparedMaze(problem).route(problem.getInitial());
+        return (route == null) ? null : route.publishLegs(executor);
+    }
 
-        // Initializing List of strings for the result
-        List<String> result = new ArrayList<>();
+    /**
+     * Given a MazeProblem, returns a solution to the problem found by the
+     * sequential search, keeping the per-state tables in a memory-mapped file
+     * rather than in memory. Meant for state spaces too large for the heap or
+     * even for physical memory.
+     * 
+     * @param problem   A MazeProblem that specifies the maze, actions, transitions.
+     * @param tableFile The file to map the search's state tables onto.
+     * @return A List of Strings representing actions that solve the problem of the
+     *         format: ["R", "R", "L", ...], or null if there is no solution.
+     * @throws IOException If the table file cannot be created or mapped.
+     */
+    public static List<String> solve(MazeProblem problem, Path tableFile) throws IOException {
+        PathfinderEvents.Solve event = new PathfinderEvents.Solve();
+        event.begin();
+        long start = System.nanoTime();
+        if (!problem.canReachAllKeys()) {
+            return PathfinderEvents.rejected(event, ENGINE, start);
+        }
+        return search(problem, StateTable.mapped(tableFile, stateCount(problem)), null, event, start);
+    }
 
-        // Initializing the graveyard for visited nodes
-        Set<SearchTreeNode> graveyard = new HashSet<>();
+    /**
+     * Returns the table the sequential search keeps its per-state bookkeeping in:
+     * one entry per packed state id for grids held in memory, but only the states
+     * reached for lazily loaded grids, whose state space can be many times larger
+     * than memory.
+     */
+    private static StateTable tableFor(MazeProblem problem) {
+        return problem.isResident() ? StateTable.forStates(stateCount(problem)) : StateTable.hashed();
+    }
 
-        // Initializing the frontier for un-expanded nodes and overriding the
-        // compareTo function
-        PriorityQueue<SearchTreeNode> frontier = new PriorityQueue<>();
+    /**
+     * Returns the number of packed state ids of the given problem: every cell
+     * index paired with every subset of the keys.
+     */
+    private static long stateCount(MazeProblem problem) {
+        return (long) problem.getCellCount() << problem.getKeyCount();
+    }
 
-        // Initialize the root node for the search tree
-        SearchTreeNode root = new SearchTreeNode(problem.getInitial(), null, null, 0);
+    /**
+     * Uniform-cost search over (cell, keysCollected) states, keeping all
+     * per-state bookkeeping in the given table and recording expansions into the
+     * given heatmap, if any. Commits the given Solve event when done.
+     */
+    private static List<String> search(MazeProblem problem, StateTable table, ExpansionHeatmap heatmap,
+            PathfinderEvents.Solve event, long start) {
+        int keyShift = problem.getKeyCount(), fullMask = (1 << keyShift) - 1;
 
-        // Initialize the keysCollected HashSet to track acquired keys
-        root.keysCollected = new HashSet<>();
+        // Initializing the frontier for un-expanded states, which lowers a
+        // state's priority when a cheaper path turns up: a bucket queue if the
+        // terrain's move costs are small enough, a heap otherwise
+        StateQueue frontier = StateQueue.forCosts(table, problem.getMaxCost());
 
-        // Add the unexpanded root to the frontier
-        frontier.add(root);
+        // Add the unexpanded root to the frontier. Each search state (cell,
+        // keysCollected) is identified by a packed id that holds the collected
+        // keys as a bitmask below the cell index
+        MazeState initial = problem.getInitial();
+        long root = (long) problem.getCellIndex(initial.row(), initial.col()) << keyShift;
+        table.setCost(root, 0);
+        frontier.push(root, 0);
+        long expansions = 0, frontierPeak = 1;
 
         // While the frontier is not empty, search for a solution
         while (!frontier.isEmpty()) {
 
-            // Poll the first node in the frontier to expand
-            SearchTreeNode curr = frontier.poll();
-
-            // Checking if the state's keyPiece is not null
-            if (curr.state.keyPiece() != null) {
-                // If it isn't, add that state to the keysCollected HashSet
-                curr.keysCollected.add(curr.state);
+            // Poll the cheapest state in the frontier to expand; its cost is final.
+            // It is skipped if a state with more keys reached the same cell at no
+            // higher cost since it was generated
+            long curr = frontier.poll();
+            int mask = (int) curr & fullMask, cell = (int) (curr >>> keyShift);
+            table.setClosed(curr);
+            if (dominated(table, (long) cell << keyShift, mask, fullMask, table.getCost(curr))) {
+                continue;
+            }
+            expansions++;
+            if (heatmap != null) {
+                heatmap.record(curr);
             }
 
-            // Goal test: If the keysCollected Set is the same size as the MazeProblem's
-            // getKeyStates Set
-            if (curr.keysCollected.size() == problem.getKeyStates().size()) {
-                // and while current's parent is not null
-                while (curr.parent != null) {
-                    // add current's action to the result list
-                    result.add(0, curr.action);
-                    // make curr equal to it's parent and loop through until we reach the root node
-                    curr = curr.parent;
-                }
-                // return the result
-                return result;
+            // Goal test: every key has been collected
+            if (mask == fullMask) {
+                return PathfinderEvents.solved(event, ENGINE, start, expansions, frontierPeak,
+                        table.getCost(curr), reconstruct(problem, curr, table));
             }
 
-            // Check if the graveyard contains the current state
-            if (!graveyard.contains(curr)) {
-                // If it doesn't, add it to the graveyard
-                graveyard.add(curr);
-                // For each action in the problem's transitions, generate a child node
-                for (Map.Entry<String, MazeState> action : problem.getTransitions(curr.state).entrySet()) {
-                    SearchTreeNode child = new SearchTreeNode(action.getValue(), action.getKey(), curr,
-                            curr.cost + problem.getCost(action.getValue()));
-                    frontier.add(child);
+            // Generate each child, keeping it only if it is still open and beats
+            // the best known cost, so that only improvements reach the frontier
+            int row = problem.getCellRow(cell), col = problem.getCellCol(cell), currCost = table.getCost(curr);
+            for (int dir = 0; dir < MazeProblem.ACTIONS.length; dir++) {
+                int next = problem.enterIndex(cell, row + MazeProblem.ACTION_ROWS[dir],
+                        col + MazeProblem.ACTION_COLS[dir], dir);
+                if (next == -1) {
+                    continue;
+                }
+                int key = problem.getKeyIndexAt(next);
+                boolean collected = key != -1 && (mask & (1 << key)) == 0;
+                long child = ((long) next << keyShift) | (collected ? mask | (1 << key) : mask);
+                if (table.isClosed(child)) {
+                    continue;
+                }
+                int cost = currCost + problem.getCostAt(next);
+                if (cost < table.getCost(child) && !dominated(table, child & ~fullMask, (int) child & fullMask,
+                        fullMask, cost)) {
+                    table.setCost(child, cost);
+                    table.setParent(child, collected ? dir | COLLECTED : dir);
+                    frontier.push(child, cost);
                 }
             }
+            frontierPeak = Math.max(frontierPeak, frontier.size());
         }
-        // When the frontier runs out, return null since all nodes have been searched
-        return null;
+        // When the frontier runs out, return null since all states have been searched
+        return PathfinderEvents.solved(event, ENGINE, start, expansions, frontierPeak, -1, null);
     }
 
     /**
-     * SearchTreeNode private static nested class that is used in the Search
-     * algorithm to construct the Search tree.
-     * [!] You may do whatever you want with this class -- in fact, you'll need
-     * to add a lot for a successful and efficient solution!
-     */
-    private static class SearchTreeNode implements Comparable<SearchTreeNode> {
-
-        MazeState state;
-        String action;
-        SearchTreeNode parent;
-        Set<MazeState> keysCollected;
-        int cost;
-
-        /**
-         * Constructs a new SearchTreeNode to be used in the Search Tree.
-         * 
-         * @param state  The MazeState (row, col) that this node represents.
-         * @param action The action that *led to* this state / node.
-         * @param parent Reference to parent SearchTreeNode in the Search Tree.
-         */
-        SearchTreeNode(MazeState state, String action, SearchTreeNode parent, int cost) {
-            this.state = state;
-            this.action = action;
-            this.parent = parent;
-            if (parent != null) {
-                this.keysCollected = new HashSet<>(parent.keysCollected);
-            } else {
-                this.keysCollected = new HashSet<>();
+     * Returns whether a state at the cell whose mask-0 state id is given, holding
+     * the given keys, is dominated: some state at the same cell holding a strict
+     * superset of those keys has been reached at no higher cost, so anything the
+     * dominated state could still do, that one does at least as cheaply. Every
+     * superset is visited by the usual bit trick of filling in the missing bits.
+     */
+    private static boolean dominated(StateTable table, long cellBase, int mask, int fullMask, int cost) {
+        for (int superset = (mask + 1) | mask; superset <= fullMask; superset = (superset + 1) | mask) {
+            if (table.getCost(cellBase | superset) <= cost) {
+                return true;
             }
-            this.cost = cost;
-        }
-
-        @Override
-        public int compareTo(SearchTreeNode other) {
-            return this.cost - other.cost;
         }
+        return false;
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            if (o == this)
-                return true;
-
-            if (!(o instanceof SearchTreeNode)) {
-                return false;
+    /**
+     * Walks the parent moves back from the goal state to the initial state,
+     * returning the moves in the order they were taken.
+     */
+    private static List<String> reconstruct(MazeProblem problem, long goal, StateTable table) {
+        int keyShift = problem.getKeyCount(), fullMask = (1 << keyShift) - 1;
+        MazeState initial = problem.getInitial();
+        long root = (long) problem.getCellIndex(initial.row(), initial.col()) << keyShift;
+        LinkedList<String> result = new LinkedList<>();
+        for (long curr = goal; curr != root;) {
+            int move = table.getParent(curr), dir = move & ~COLLECTED;
+            int cell = (int) (curr >>> keyShift), mask = (int) curr & fullMask;
+            int row = problem.getCellRow(cell), col = problem.getCellCol(cell);
+            result.addFirst(MazeProblem.ACTIONS[dir]);
+            if ((move & COLLECTED) != 0) {
+                mask &= ~(1 << problem.getKeyIndexAt(cell));
             }
-            SearchTreeNode searchTreeNode = (SearchTreeNode) o;
-            return state.equals(searchTreeNode.state)
-                    && Objects.equals(keysCollected, searchTreeNode.keysCollected);
+            int prevCell = problem.getCellIndex(row - MazeProblem.ACTION_ROWS[dir], col - MazeProblem.ACTION_COLS[dir]);
+            curr = ((long) prevCell << keyShift) | mask;
         }
+        return new ArrayList<>(result);
+    }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(state, keysCollected);
+    /**
+     * Admissible and consistent estimate of the cost still needed to collect
+     * every key from the given cell: the largest Manhattan distance to any key not
+     * yet in the mask, since every move costs at least 1.
+     * 
+     * @param problem The MazeProblem being searched.
+     * @param row     Row of the current cell.
+     * @param col     Column of the current cell.
+     * @param mask    Bitmask of the key indices collected so far.
+     * @return A lower bound on the remaining cost.
+     */
+    static int heuristic(MazeProblem problem, int row, int col, int mask) {
+        int cols = problem.getCols(), result = 0;
+        for (int k = 0; k < problem.getKeyCount(); k++) {
+            if ((mask & (1 << k)) == 0) {
+                int cell = problem.getKeyCell(k);
+                result = Math.max(result, Math.abs(cell / cols - row) + Math.abs(cell % cols - col));
+            }
         }
-
+        return result;
     }
 
 }
@@ -0,0 +1,152 @@
+package test.pathfinder.informed.trikey;
+
+import java.util.*;
+import main.pathfinder.informed.trikey.*;
+
+/**
+ * Timing benchmarks for the Pathfinder engines on large, randomly generated
+ * mazes. Run with:
+ *
+ * <pre>
+ * java test.pathfinder.informed.trikey.PathfinderBenchmark [size] [seed]
+ * </pre>
+ */
+public class PathfinderBenchmark {
+
+    // =================================================
+    // Benchmark Configurations
+    // =================================================
+
+    public static final int WARMUP_RUNS = 2, TIMED_RUNS = 5;
+    public static final double WALL_DENSITY = 0.25, MUD_DENSITY = 0.1;
+
+    public static void main (String[] args) {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : 42;
+        String[] maze = randomMaze(new Random(seed), size, size, WALL_DENSITY, MUD_DENSITY, 3);
+        MazeProblem prob = new MazeProblem(maze);
+        System.out.println("Maze: " + size + "x" + size + ", seed " + seed);
+
+        EnginePlanner.Plan plan = new EnginePlanner().plan(prob);
+        System.out.println("Planner: " + plan.getEngine() + " (" + plan.getReason() + ") for " + plan.getProfile());
+
+        double sequential = time(() -> Pathfinder.solve(prob));
+        report("sequential", sequential, sequential);
+        report("prepared", time(() -> Pathfinder.solve(prob, Pathfinder.Engine.PREPARED)), sequential);
+
+        // Scaling curve of the parallel engine from 1 to N worker threads
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            final int t = threads;
+            report("parallel x" + threads, time(() -> ParallelPathfinder.solve(prob, t)), sequential);
+        }
+
+        // Distance fields on a large open map: scalar Dijkstra against the
+        // word-parallel bitboard wavefront
+        MazeProblem open = new MazeProblem(randomMaze(new Random(seed), size, size, 0.05, 0, 3));
+        MazeState source = open.getInitial();
+        BitboardDistanceField board = BitboardDistanceField.build(open);
+        double scalar = time(() -> DistanceField.computeScalar(open, source.row(), source.col()));
+        report("field scalar", scalar, scalar);
+        report("field bitboard", time(() -> board.compute(source.row(), source.col())), scalar);
+
+        // A wall-dominated map of narrow streets: dense against run-length
+        // storage, whose search tables only cover the open cells
+        String[] streets = streetMaze(new Random(seed), size, size, 10);
+        RunLengthMazeGrid runs = new RunLengthMazeGrid(streets);
+        MazeProblem dense = new MazeProblem(streets), sparse = new MazeProblem(runs);
+        System.out.printf("Streets: %d of %d cells open in %d runs; search tables of %d against %d states%n",
+                sparse.getCellCount(), dense.getCellCount(), runs.getRunCount(),
+                (long) sparse.getCellCount() << sparse.getKeyCount(),
+                (long) dense.getCellCount() << dense.getKeyCount());
+        double streetsDense = time(() -> Pathfinder.solve(dense));
+        report("streets dense", streetsDense, streetsDense);
+        report("streets sparse", time(() -> Pathfinder.solve(sparse)), streetsDense);
+
+        // The same maze with its cells numbered in tiles rather than rows, so
+        // vertical moves stay near in the search tables; run at a size of 2000
+        // or more, under perf stat -e cache-misses, to see the effect on misses
+        MazeProblem tiled = new MazeProblem(new StringMazeGrid(maze), TerrainTable.DEFAULT, CellLayout.TILED);
+        report("sequential tiled", time(() -> Pathfinder.solve(tiled)), sequential);
+    }
+
+    /**
+     * Runs the given solver a few times to warm up, then returns the mean time of
+     * the timed runs in milliseconds.
+     */
+    public static double time (Runnable solver) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            solver.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            solver.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / TIMED_RUNS;
+    }
+
+    public static void report (String name, double millis, double baseline) {
+        System.out.printf("%-16s %10.2f ms  %6.2fx%n", name, millis, baseline / millis);
+    }
+
+    /**
+     * Generates a wall-dominated map: walls everywhere except for streets along
+     * every spacing-th row and column, with an initial state and 3 keys on
+     * random street cells.
+     */
+    public static String[] streetMaze (Random rng, int rows, int cols, int spacing) {
+        char[][] grid = new char[rows][cols];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                boolean street = (r % spacing == 1 && r < rows - 1) || (c % spacing == 1 && c < cols - 1);
+                grid[r][c] = (street && r > 0 && c > 0) ? '.' : 'X';
+            }
+        }
+        for (int i = 0; i <= 3; i++) {
+            int r, c;
+            do {
+                r = rng.nextInt(rows);
+                c = rng.nextInt(cols);
+            } while (grid[r][c] != '.');
+            grid[r][c] = (i == 0) ? 'I' : (char) ('0' + i);
+        }
+        String[] result = new String[rows];
+        for (int r = 0; r < rows; r++) {
+            result[r] = new String(grid[r]);
+        }
+        return result;
+    }
+
+    /**
+     * Generates a random maze bordered by walls, with the given densities of
+     * interior walls and mud, an initial state, and the given number of keys
+     * (at most 3) on distinct open cells.
+     */
+    public static String[] randomMaze (Random rng, int rows, int cols, double walls, double mud, int keys) {
+        char[][] grid = new char[rows][cols];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                double roll = rng.nextDouble();
+                if (r == 0 || r == rows-1 || c == 0 || c == cols-1 || roll < walls) {
+                    grid[r][c] = 'X';
+                } else {
+                    grid[r][c] = (roll < walls + mud) ? 'M' : '.';
+                }
+            }
+        }
+        for (int i = 0; i <= keys; i++) {
+            int r, c;
+            do {
+                r = 1 + rng.nextInt(rows - 2);
+                c = 1 + rng.nextInt(cols - 2);
+            } while (grid[r][c] == 'I' || (grid[r][c] >= '1' && grid[r][c] <= '3'));
+            grid[r][c] = (i == 0) ? 'I' : (char) ('0' + i);
+        }
+        String[] result = new String[rows];
+        for (int r = 0; r < rows; r++) {
+            result[r] = new String(grid[r]);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ Filename: PathfinderClient.java
+ Description: Client for the binary protocol of the resident PathfinderServer.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * A single connection to a {@link PathfinderServer}. Requests on one
+ * connection are answered in order, so a client should not be shared between
+ * threads; open one per thread instead.
+ */
+public class PathfinderClient implements Closeable {
+
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Connects to the server at the given TCP or Unix domain socket address.
+     *
+     * @param address The server's address.
+     * @throws IOException If the connection fails.
+     */
+    public PathfinderClient(SocketAddress address) throws IOException {
+        this.channel = SocketChannel.open(address);
+        this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    /**
+     * Loads the given maze into the server's registry.
+     *
+     * @param maze An array of Strings in which characters represent the legal maze
+     *             entities, as for {@link MazeProblem#MazeProblem(String[])}.
+     * @return The id to query the maze by.
+     * @throws IOException If the request fails or the server rejects the maze.
+     */
+    public int load(String[] maze) throws IOException {
+        int cols = (maze.length == 0) ? 0 : maze[0].length();
+        out.writeByte(PathfinderServer.LOAD);
+        out.writeInt(maze.length);
+        out.writeInt(cols);
+        for (String row : maze) {
+            out.writeBytes(row);
+        }
+        out.flush();
+        checkStatus(in.readByte());
+        return in.readInt();
+    }
+
+    /**
+     * Asks for the optimal route collecting every key of the given maze, starting
+     * from the given cell.
+     *
+     * @param mazeId The id returned by {@link #load(String[])}.
+     * @param start  The MazeState to start from, or null for the maze's initial
+     *               state.
+     * @return A List of Strings representing actions of the format: ["R", "R",
+     *         "L", ...], or null if there is no solution.
+     * @throws IOException If the request fails or the server reports an error.
+     */
+    public List<String> query(int mazeId, MazeState start) throws IOException {
+        out.writeByte(PathfinderServer.QUERY);
+        out.writeInt(mazeId);
+        out.writeInt(start == null ? -1 : start.row());
+        out.writeInt(start == null ? -1 : start.col());
+        out.flush();
+        byte status = in.readByte();
+        if (status == PathfinderServer.NO_SOLUTION) {
+            return null;
+        }
+        checkStatus(status);
+        in.readInt(); // cost
+        int count = in.readInt();
+        byte[] packed = new byte[(count + 3) / 4];
+        in.readFully(packed);
+        return PackedPath.unpack(packed, count);
+    }
+
+    /**
+     * Releases one load of the given maze; the server removes it from its
+     * registry once every load of it has been released.
+     *
+     * @param mazeId The id returned by {@link #load(String[])}.
+     * @throws IOException If the request fails or the maze is unknown.
+     */
+    public void unload(int mazeId) throws IOException {
+        out.writeByte(PathfinderServer.UNLOAD);
+        out.writeInt(mazeId);
+        out.flush();
+        checkStatus(in.readByte());
+    }
+
+    private void checkStatus(byte status) throws IOException {
+        switch (status) {
+            case PathfinderServer.OK:
+                return;
+            case PathfinderServer.UNKNOWN_MAZE:
+                throw new IOException("Server does not know the requested maze");
+            case PathfinderServer.ERROR:
+                throw new IOException("Server error: " + in.readUTF());
+            default:
+                throw new IOException("Unexpected status " + status);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
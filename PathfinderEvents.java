@@ -0,0 +1,186 @@
+/*
+ Filename: PathfinderEvents.java
+ Description: Custom Java Flight Recorder events for maze loading, preprocessing, solving, and cache
+                lookups.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.util.List;
+import jdk.jfr.*;
+
+/**
+ * Java Flight Recorder events emitted by the pathfinder, so that slow solves can
+ * be lined up against GC and CPU activity in production recordings. All events
+ * are in the "Pathfinder" category and are disabled unless a recording enables
+ * them, in which case creating and committing one is nearly free.
+ */
+public class PathfinderEvents {
+
+    private PathfinderEvents() {
+    }
+
+    /**
+     * Returns the instruments a search engine records its solves in, registered
+     * under <code>solve.&lt;engine&gt;.*</code>; engines look them up once, into
+     * a static final field.
+     *
+     * @param engine The name of the engine.
+     * @return The engine's EngineMetrics.
+     */
+    static EngineMetrics metrics(String engine) {
+        return new EngineMetrics(engine);
+    }
+
+    /**
+     * Ends and commits a Solve event for a search that found a route or proved
+     * there is none, and records the search in the engine's metrics.
+     *
+     * @param event        The Solve event begun when the search started.
+     * @param engine       The metrics of the engine that searched.
+     * @param start        The System.nanoTime() at which the search started.
+     * @param expansions   The number of states expanded.
+     * @param frontierPeak The largest frontier (or stack) size reached.
+     * @param cost         The cost of the route found, or -1 if none.
+     * @param result       The route found, or null; returned as is.
+     * @return The given result.
+     */
+    static List<String> solved(Solve event, EngineMetrics engine, long start, long expansions, long frontierPeak,
+            int cost, List<String> result) {
+        if (result != null) {
+            finish(event, engine, start, "solved", engine.solved);
+        } else {
+            finish(event, engine, start, "unsolvable", engine.unsolvable);
+        }
+        event.expansions = expansions;
+        event.frontierPeak = frontierPeak;
+        event.cost = cost;
+        event.commit();
+        engine.expansions.add(expansions);
+        return result;
+    }
+
+    /**
+     * Ends and commits a Solve event for a problem rejected by the reachability
+     * precheck before any search, and records it in the metrics registry.
+     *
+     * @param event  The Solve event begun when the solve started.
+     * @param engine The metrics of the engine that was asked to search.
+     * @param start  The System.nanoTime() at which the solve started.
+     * @return null, the result of a rejected solve.
+     */
+    static List<String> rejected(Solve event, EngineMetrics engine, long start) {
+        finish(event, engine, start, "rejected", engine.rejected);
+        event.cost = -1;
+        event.commit();
+        return null;
+    }
+
+    private static void finish(Solve event, EngineMetrics engine, long start, String outcome,
+            PathfinderMetrics.Counter outcomes) {
+        event.end();
+        event.engine = engine.name;
+        event.outcome = outcome;
+        outcomes.increment();
+        engine.nanos.record(System.nanoTime() - start);
+    }
+
+    /**
+     * The instruments of one search engine: a counter per outcome, the states it
+     * expanded, and the latency of its solves.
+     */
+    static class EngineMetrics {
+
+        final String name;
+        final PathfinderMetrics.Counter solved, unsolvable, rejected, expansions;
+        final PathfinderMetrics.Histogram nanos;
+
+        private EngineMetrics(String name) {
+            this.name = name;
+            this.solved = PathfinderMetrics.counter("solve." + name + ".solved");
+            this.unsolvable = PathfinderMetrics.counter("solve." + name + ".unsolvable");
+            this.rejected = PathfinderMetrics.counter("solve." + name + ".rejected");
+            this.expansions = PathfinderMetrics.counter("solve." + name + ".expansions");
+            this.nanos = PathfinderMetrics.histogram("solve." + name + ".nanos");
+        }
+
+    }
+
+    @Name("pathfinder.MazeLoad")
+    @Label("Maze Load")
+    @Category("Pathfinder")
+    @Description("Construction of a MazeProblem from its grid")
+    public static class MazeLoad extends Event {
+
+        @Label("Rows")
+        int rows;
+
+        @Label("Columns")
+        int cols;
+
+        @Label("Keys")
+        int keys;
+
+        @Label("Resident")
+        @Description("Whether the whole grid is held in memory")
+        boolean resident;
+
+    }
+
+    @Name("pathfinder.Preprocess")
+    @Label("Preprocessing Phase")
+    @Category("Pathfinder")
+    @Description("One preprocessing phase run over a whole maze")
+    public static class Preprocess extends Event {
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Cells")
+        long cells;
+
+    }
+
+    @Name("pathfinder.Solve")
+    @Label("Solve")
+    @Category("Pathfinder")
+    @Description("One search for a route collecting every key")
+    public static class Solve extends Event {
+
+        @Label("Engine")
+        String engine;
+
+        @Label("Expansions")
+        long expansions;
+
+        @Label("Frontier Peak")
+        @Description("Largest number of states waiting in the frontier (or on the stack) at once")
+        long frontierPeak;
+
+        @Label("Outcome")
+        @Description("solved, unsolvable, or rejected (by the reachability precheck)")
+        String outcome;
+
+        @Label("Cost")
+        @Description("Cost of the route found, or -1")
+        int cost;
+
+    }
+
+    @Name("pathfinder.CacheLookup")
+    @Label("Cache Lookup")
+    @Category("Pathfinder")
+    @Description("A lookup in one of the pathfinder's caches that missed the fast path")
+    public static class CacheLookup extends Event {
+
+        @Label("Cache")
+        String cache;
+
+        @Label("Hit")
+        boolean hit;
+
+    }
+
+}
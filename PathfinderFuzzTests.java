@@ -0,0 +1,223 @@
+package test.pathfinder.informed.trikey;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+import main.pathfinder.informed.trikey.*;
+
+/**
+ * Randomized differential tests for the Pathfinder engines: thousands of
+ * seeded random mazes (of varying size, wall and mud density, and key count,
+ * some made unsolvable on purpose) are solved by every engine, every path is
+ * checked with {@link MazeProblem#testSolution}, and all engines must agree on
+ * the optimal cost. Half of the mazes are read with richer terrain tables,
+ * with costs beyond the bucket queue's range or with one-way cells. Mazes are
+ * solved in parallel. The run can be widened with
+ * the system properties <code>fuzz.seed</code> and <code>fuzz.mazes</code>;
+ * every failure reports the seed of its maze so it can be replayed.
+ */
+public class PathfinderFuzzTests {
+
+    // =================================================
+    // Test Configurations
+    // =================================================
+
+    public static final long SEED = Long.getLong("fuzz.seed", 37);
+    public static final int MAZES = Integer.getInteger("fuzz.mazes", 2000),
+                            MIN_SIZE = 4, MAX_SIZE = 32,
+                            MAX_REPORTED = 10;
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(120);
+
+    /**
+     * An engine under test: solves a problem, returning its moves or null.
+     */
+    interface Engine {
+        List<String> solve (MazeProblem problem);
+    }
+
+    static final Map<String, Engine> ENGINES = new LinkedHashMap<>();
+    static {
+        ENGINES.put("sequential", problem -> Pathfinder.solve(problem, Pathfinder.Engine.SEQUENTIAL));
+        ENGINES.put("parallel", problem -> ParallelPathfinder.solve(problem, 3));
+        ENGINES.put("lowMemory", problem -> LowMemoryPathfinder.solve(problem, 1 << 10));
+        ENGINES.put("preparedRoute", problem -> {
+            PreparedMaze.Route route = new PreparedMaze(problem).route(problem.getInitial());
+            return (route == null) ? null : route.getMoves();
+        });
+        ENGINES.put("prepared", problem -> Pathfinder.solve(problem, Pathfinder.Engine.PREPARED));
+        ENGINES.put("planned", problem -> new EnginePlanner().solve(problem));
+        ENGINES.put("runLength", problem -> Pathfinder.solve(new MazeProblem(
+                new RunLengthMazeGrid(new StringMazeGrid(tilesOf(problem)), problem.getTerrain()),
+                problem.getTerrain())));
+        ENGINES.put("tiled", problem -> Pathfinder.solve(new MazeProblem(new StringMazeGrid(tilesOf(problem)),
+                problem.getTerrain(), CellLayout.TILED)));
+    }
+
+    /**
+     * Terrain tables mazes are read with besides the default one, along with the
+     * glyphs sprinkled into the mazes read with them.
+     */
+    static final TerrainTable COSTLY = TerrainTable.DEFAULT.with('S', 2).with('W', 5).with('D', 90),
+            ONE_WAY = TerrainTable.DEFAULT.with('S', 2).withOneWay('^', 1, "U").withOneWay('v', 1, "D")
+                    .withOneWay('<', 1, "L").withOneWay('>', 2, "R");
+    static final String COSTLY_GLYPHS = "SWD", ONE_WAY_GLYPHS = "S^v<>";
+
+    @Test
+    public void testEnginesAgree () {
+        Queue<String> failures = new ConcurrentLinkedQueue<>();
+        IntStream.range(0, MAZES).parallel().forEach(i -> {
+            long seed = SEED * 1_000_003 + i;
+            Random rng = new Random(seed);
+            String[] maze = fuzzMaze(rng);
+            TerrainTable terrain = TerrainTable.DEFAULT;
+            if (i % 4 == 1) {
+                terrain = COSTLY;
+                sprinkle(maze, rng, COSTLY_GLYPHS);
+            } else if (i % 4 == 3) {
+                terrain = ONE_WAY;
+                sprinkle(maze, rng, ONE_WAY_GLYPHS);
+            }
+            try {
+                String failure = check(maze, terrain);
+                if (failure != null) {
+                    failures.add("seed " + seed + ": " + failure + "\n" + String.join("\n", maze));
+                }
+            } catch (RuntimeException e) {
+                failures.add("seed " + seed + ": " + e + "\n" + String.join("\n", maze));
+            }
+        });
+        if (!failures.isEmpty()) {
+            StringBuilder message = new StringBuilder(failures.size() + " of " + MAZES + " mazes failed");
+            failures.stream().limit(MAX_REPORTED).forEach(failure -> message.append("\n\n").append(failure));
+            fail(message.toString());
+        }
+    }
+
+    /**
+     * Generates one random maze: between 1 and 3 keys, a size between MIN_SIZE
+     * and MAX_SIZE on each side, and wall and mud densities spread widely enough
+     * that some mazes are unsolvable on their own; a few more have a key walled
+     * in on purpose.
+     */
+    static String[] fuzzMaze (Random rng) {
+        int rows = MIN_SIZE + rng.nextInt(MAX_SIZE - MIN_SIZE + 1),
+            cols = MIN_SIZE + rng.nextInt(MAX_SIZE - MIN_SIZE + 1);
+        double walls = 0.45 * rng.nextDouble(), mud = 0.4 * rng.nextDouble();
+        String[] maze = PathfinderBenchmark.randomMaze(rng, rows, cols, walls, mud, 1 + rng.nextInt(3));
+        if (rng.nextInt(10) == 0) {
+            char[][] grid = new char[rows][];
+            for (int r = 0; r < rows; r++) {
+                grid[r] = maze[r].toCharArray();
+            }
+            for (int r = 1; r < rows - 1; r++) {
+                for (int c = 1; c < cols - 1; c++) {
+                    if (grid[r][c] == '1') {
+                        for (int[] d : new int[][] { { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 } }) {
+                            if (grid[r + d[0]][c + d[1]] != 'I' && !isKey(grid[r + d[0]][c + d[1]])) {
+                                grid[r + d[0]][c + d[1]] = 'X';
+                            }
+                        }
+                    }
+                }
+            }
+            for (int r = 0; r < rows; r++) {
+                maze[r] = new String(grid[r]);
+            }
+        }
+        return maze;
+    }
+
+    /**
+     * Turns a random fraction of the maze's open cells into the given glyphs.
+     */
+    static void sprinkle (String[] maze, Random rng, String glyphs) {
+        double density = 0.4 * rng.nextDouble();
+        for (int r = 0; r < maze.length; r++) {
+            char[] row = maze[r].toCharArray();
+            for (int c = 0; c < row.length; c++) {
+                if (row[c] == '.' && rng.nextDouble() < density) {
+                    row[c] = glyphs.charAt(rng.nextInt(glyphs.length()));
+                }
+            }
+            maze[r] = new String(row);
+        }
+    }
+
+    /**
+     * Solves the maze with every engine and returns a description of the first
+     * disagreement, or null if all engines found valid paths of the same cost or
+     * all agreed that there is none. Engines that cannot handle one-way terrain
+     * sit out mazes that have it.
+     */
+    static String check (String[] maze, TerrainTable terrain) {
+        MazeProblem prob = new MazeProblem(maze, terrain);
+        Map<String, Integer> costs = new LinkedHashMap<>();
+        for (Map.Entry<String, Engine> engine : ENGINES.entrySet()) {
+            if (prob.hasOneWayTerrain() && engine.getKey().equals("preparedRoute")) {
+                continue;
+            }
+            List<String> solution = engine.getValue().solve(prob);
+            if (solution == null) {
+                costs.put(engine.getKey(), null);
+                continue;
+            }
+            int[] result = prob.testSolution(solution);
+            if (result[1] < 0 || !collectsAllKeys(prob, solution)
+                    || (prob.getKeyCount() == prob.getKeyTiles().size() && result[0] != 1)) {
+                return engine.getKey() + " returned an invalid path " + solution;
+            }
+            costs.put(engine.getKey(), result[1]);
+        }
+        if (new HashSet<>(costs.values()).size() != 1) {
+            return "engines disagree on the optimal cost " + costs;
+        }
+        return null;
+    }
+
+    /**
+     * Checks that the given path visits every key of the maze; testSolution
+     * only reports success for mazes holding all three keys, so mazes with fewer
+     * keys are checked here.
+     */
+    static boolean collectsAllKeys (MazeProblem prob, List<String> solution) {
+        Set<Integer> remaining = new HashSet<>();
+        for (MazeState key : prob.getKeyStates()) {
+            remaining.add(key.row() * prob.getCols() + key.col());
+        }
+        int row = prob.getInitial().row(), col = prob.getInitial().col();
+        for (String move : solution) {
+            row += move.equals("U") ? -1 : move.equals("D") ? 1 : 0;
+            col += move.equals("L") ? -1 : move.equals("R") ? 1 : 0;
+            remaining.remove(row * prob.getCols() + col);
+        }
+        return remaining.isEmpty();
+    }
+
+    /**
+     * Reads the tiles of the given problem back into rows of Strings.
+     */
+    static String[] tilesOf (MazeProblem prob) {
+        String[] result = new String[prob.getRows()];
+        for (int r = 0; r < result.length; r++) {
+            StringBuilder row = new StringBuilder(prob.getCols());
+            for (int c = 0; c < prob.getCols(); c++) {
+                row.append(prob.getTile(r, c));
+            }
+            result[r] = row.toString();
+        }
+        return result;
+    }
+
+    static boolean isKey (char tile) {
+        return tile >= '1' && tile <= '3';
+    }
+
+}
@@ -10,7 +10,13 @@ import org.junit.rules.TestWatcher;
 import org.junit.rules.Timeout;
 import org.junit.runner.Description;
 
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import main.pathfinder.informed.trikey.*;
 
 /**
@@ -679,4 +685,958 @@ public class PathfinderGradingTests {
         assertEquals(OPT_ERR, 998, result[1]);  // Ensure that the solution is optimal
     }
     
+    @Test
+    public void testComponents_t0() {
+        // The striped labeling must agree with the flood fill even when components
+        // wind back and forth across the stripe seams
+        String[] maze = {
+            "XXXXXXXXX",
+            "XI.X.X.1X",
+            "XX.X.X.XX",
+            "X..X...XX",
+            "X.XXXXX.X",
+            "X.X2..X.X",
+            "X.XXX.X3X",
+            "XXXXXXXXX"
+        };
+        MazeProblem prob = new MazeProblem(maze);
+        MazeComponents sequential = MazeComponents.floodFill(prob);
+        for (int stripes = 1; stripes <= maze.length; stripes++) {
+            MazeComponents striped = MazeComponents.labelParallel(prob, stripes);
+            assertEquals(sequential.getComponentCount(), striped.getComponentCount());
+            for (int r = 0; r < maze.length; r++) {
+                for (int c = 0; c < maze[r].length(); c++) {
+                    assertEquals(sequential.getLabel(r, c), striped.getLabel(r, c));
+                }
+            }
+        }
+        assertEquals(4, sequential.getComponentCount());
+        assertFalse(sequential.allConnected(prob.getInitial(), prob.getKeyStates()));
+        assertNull(NOS_ERR, Pathfinder.solve(prob));
+    }
+    
+    @Test
+    public void testPreparedMaze_t0() {
+        // Routes from every start cell of a prepared maze must cost the same as
+        // solving a fresh maze with the initial state moved to that cell
+        String[] maze = {
+            "XXXXXXXXX",
+            "XXXX.XXXX",
+            "XXXX.XXXX",
+            "XI...M12X",
+            "XXXX.XX.X",
+            "XXXXM...X",
+            "XXXX3XXXX",
+            "XXXXXXXXX"
+        };
+        PreparedMaze prepared = new PreparedMaze(new MazeProblem(maze));
+        for (int r = 0; r < maze.length; r++) {
+            for (int c = 0; c < maze[r].length(); c++) {
+                if (maze[r].charAt(c) != '.') {
+                    continue;
+                }
+                String[] moved = maze.clone();
+                moved[3] = moved[3].replace('I', '.');
+                moved[r] = moved[r].substring(0, c) + "I" + moved[r].substring(c + 1);
+                MazeProblem prob = new MazeProblem(moved);
+                int[] expected = prob.testSolution(Pathfinder.solve(prob));
+                
+                PreparedMaze.Route route = prepared.route(new MazeState(c, r, null));
+                int[] result = prob.testSolution(route.getMoves());
+                assertEquals(SOL_ERR, 1, result[0]);
+                assertEquals(OPT_ERR, expected[1], result[1]);
+                assertEquals(OPT_ERR, expected[1], route.getCost());
+            }
+        }
+    }
+    
+    @Test
+    public void testParallel_t0() {
+        // The parallel engine must find solutions as cheap as the sequential one,
+        // whatever the number of workers the states are spread across
+        String[][] mazes = {
+            { "XXXXXXX", "XI....X", "X.MMM2X", "X.X1X3X", "XXXXXXX" },
+            { "XXXXXXX", "XI.3..X", "XMMMM.X", "X2X1X.X", "XXXXXXX" },
+            { "XXXXXXX", "XI.3..X", "X.MXM.X", "X2X1X.X", "XXXXXXX" },
+            { "XXXXXXXXX", "XXXX.XXXX", "XXXX.XXXX", "XI...M12X", "XXXX.XX.X", "XXXX3...X", "XXXXXXXXX" }
+        };
+        for (String[] maze : mazes) {
+            MazeProblem prob = new MazeProblem(maze);
+            List<String> expected = Pathfinder.solve(prob);
+            for (int threads = 1; threads <= 4; threads++) {
+                List<String> solution = ParallelPathfinder.solve(prob, threads);
+                if (expected == null) {
+                    assertNull(NOS_ERR, solution);
+                    continue;
+                }
+                int[] result = prob.testSolution(solution);
+                assertEquals(SOL_ERR, 1, result[0]);
+                assertEquals(OPT_ERR, prob.testSolution(expected)[1], result[1]);
+            }
+        }
+    }
+    
+    @Test
+    public void testLowMemory_t0() {
+        // Tiny transposition tables only cost re-expansions, never optimality
+        String[][] mazes = {
+            { "XXXXXXX", "XI....X", "X.MMM2X", "X.X1X3X", "XXXXXXX" },
+            { "XXXXXXX", "XI.3..X", "XMMMM.X", "X2X1X.X", "XXXXXXX" },
+            { "XXXXXXX", "XI.3..X", "X.MXM.X", "X2X1X.X", "XXXXXXX" },
+            { "XXXXXXXXX", "XXXX.XXXX", "XXXX.XXXX", "XI...M12X", "XXXX.XX.X", "XXXX3...X", "XXXXXXXXX" }
+        };
+        for (String[] maze : mazes) {
+            MazeProblem prob = new MazeProblem(maze);
+            List<String> expected = Pathfinder.solve(prob);
+            for (int tableSize : new int[] { 1, 16, LowMemoryPathfinder.DEFAULT_TABLE_SIZE }) {
+                List<String> solution = LowMemoryPathfinder.solve(prob, tableSize);
+                if (expected == null) {
+                    assertNull(NOS_ERR, solution);
+                    continue;
+                }
+                int[] result = prob.testSolution(solution);
+                assertEquals(SOL_ERR, 1, result[0]);
+                assertEquals(OPT_ERR, prob.testSolution(expected)[1], result[1]);
+            }
+        }
+    }
+    
+    @Test
+    public void testMappedTables_t0() throws IOException {
+        // Keeping the state tables in a memory-mapped file must not change the
+        // solutions found
+        MazeState initial = new MazeState(1, 1, null);
+        Set<MazeState> keys = new HashSet<>(
+            Arrays.asList(
+                new MazeState(60, 1, null),
+                new MazeState(60, 60, null),
+                new MazeState(1, 60, null)
+            )
+        );
+        Set<MazeState> mud = new HashSet<>(Arrays.asList(new MazeState(30, 30, null), new MazeState(31, 30, null)));
+        String[] maze = createBigBoiMaze(62, 62, initial, keys, mud, new HashSet<>());
+        MazeProblem prob = new MazeProblem(maze);
+        Path tableFile = Files.createTempFile("pathfinder", ".tables");
+        try {
+            int[] result = prob.testSolution(Pathfinder.solve(prob, tableFile));
+            assertEquals(SOL_ERR, 1, result[0]);
+            assertEquals(OPT_ERR, prob.testSolution(Pathfinder.solve(prob))[1], result[1]);
+        } finally {
+            Files.deleteIfExists(tableFile);
+        }
+    }
+    
+    @Test
+    public void testKeyLimit_t0() {
+        // Mazes with more keys than a packed state id can track are refused when
+        // they are loaded, rather than when a search sizes its tables
+        assertEquals(MazeProblem.MAX_KEYS, new MazeProblem(keyCorridor(MazeProblem.MAX_KEYS)).getKeyCount());
+        try {
+            new MazeProblem(keyCorridor(MazeProblem.MAX_KEYS + 1));
+            fail("expected a maze with too many keys to be refused");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+    
+    /**
+     * Returns a maze of one corridor running from the initial state through the
+     * given number of keys.
+     */
+    private static String[] keyCorridor(int keys) {
+        StringBuilder wall = new StringBuilder("XXX"), corridor = new StringBuilder("XI");
+        for (int k = 0; k < keys; k++) {
+            wall.append('X');
+            corridor.append((char) ('1' + k % 3));
+        }
+        return new String[] { wall.toString(), corridor.append('X').toString(), wall.toString() };
+    }
+    
+    @Test
+    public void testTiledGrid_t0() throws IOException {
+        // A maze read chunk by chunk from disk, with a cache far smaller than the
+        // maze, must be solved exactly like the in-memory original
+        MazeState initial = new MazeState(1, 1, null);
+        Set<MazeState> keys = new HashSet<>(
+            Arrays.asList(
+                new MazeState(90, 2, null),
+                new MazeState(45, 90, null),
+                new MazeState(2, 70, null)
+            )
+        );
+        Set<MazeState> mud = new HashSet<>(Arrays.asList(new MazeState(30, 30, null), new MazeState(31, 30, null)));
+        Set<MazeState> walls = new HashSet<>();
+        for (int r = 1; r < 80; r++) {
+            walls.add(new MazeState(50, r, null));
+        }
+        String[] maze = createBigBoiMaze(93, 93, initial, keys, mud, walls);
+        MazeProblem expected = new MazeProblem(maze);
+        Path file = Files.createTempFile("pathfinder", ".tiles");
+        try {
+            TiledMazeGrid.write(new StringMazeGrid(maze), file, 16);
+            try (TiledMazeGrid grid = new TiledMazeGrid(file, 4 * 16 * 16)) {
+                MazeProblem prob = new MazeProblem(grid);
+                assertEquals(expected.getInitial(), prob.getInitial());
+                assertEquals(expected.getKeyStates(), prob.getKeyStates());
+                int[] result = prob.testSolution(Pathfinder.solve(prob));
+                assertEquals(SOL_ERR, 1, result[0]);
+                assertEquals(OPT_ERR, expected.testSolution(Pathfinder.solve(expected))[1], result[1]);
+                assertTrue(grid.getLoads() > 0);
+            }
+
+            // Files whose header fields or length are off are refused before any
+            // chunk is read: a zero chunk size, a huge special cell count, and a
+            // missing last chunk
+            byte[] original = Files.readAllBytes(file);
+            for (int[] corruption : new int[][] { { 16, 0 }, { 20, Integer.MAX_VALUE }, { -1, 0 } }) {
+                Files.write(file, original);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    if (corruption[0] == -1) {
+                        channel.truncate(original.length - 1);
+                    } else {
+                        channel.write(ByteBuffer.allocate(4).putInt(0, corruption[1]), corruption[0]);
+                    }
+                }
+                try {
+                    new TiledMazeGrid(file, 4 * 16 * 16).close();
+                    fail("expected a corrupted tiled maze file to be refused");
+                } catch (IOException e) {
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    @Test
+    public void testLowMemoryUnsolvableTiled_t0() throws IOException {
+        // Lazily loaded grids skip the reachability precheck, so the search
+        // itself must notice that an open room with a walled-in key holds no
+        // solution, even when its table is too small to settle
+        String[] maze = {
+            "XXXXXXXX",
+            "XI.....X",
+            "X..M.2.X",
+            "X....XXX",
+            "X..M.X1X",
+            "XXXXXXXX"
+        };
+        Path file = Files.createTempFile("pathfinder", ".tiles");
+        try {
+            TiledMazeGrid.write(new StringMazeGrid(maze), file, 4);
+            try (TiledMazeGrid grid = new TiledMazeGrid(file, 4 * 4 * 4)) {
+                MazeProblem prob = new MazeProblem(grid);
+                assertTrue(prob.canReachAllKeys());
+                assertNull(NOS_ERR, LowMemoryPathfinder.solve(prob));
+                assertNull(NOS_ERR, LowMemoryPathfinder.solve(prob, 64));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    @Test
+    public void testTiledHashedTable_t0() throws IOException {
+        // A lazily loaded maze whose dense state table would be far larger than
+        // the heap is searched with a table of only the states it reaches
+        int side = 1024, keys = 12;
+        MazeGrid source = new MazeGrid() {
+            @Override
+            public int getRows() {
+                return side;
+            }
+
+            @Override
+            public int getCols() {
+                return side;
+            }
+
+            @Override
+            public char getTile(int row, int col) {
+                if (row != 1 || col < 1 || col > keys + 1) {
+                    return 'X';
+                }
+                return (col == 1) ? 'I' : (char) ('1' + col % 3);
+            }
+        };
+        assertTrue(((long) side * side << keys) > Runtime.getRuntime().maxMemory());
+        Path file = Files.createTempFile("pathfinder", ".tiles");
+        try {
+            TiledMazeGrid.write(source, file, 64);
+            try (TiledMazeGrid grid = new TiledMazeGrid(file, 16L * 64 * 64)) {
+                MazeProblem prob = new MazeProblem(grid);
+                assertEquals(keys, prob.getKeyCount());
+                List<String> solution = Pathfinder.solve(prob);
+                assertEquals(SOL_ERR, 1, prob.testSolution(solution)[0]);
+                assertEquals(OPT_ERR, keys, solution.size());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    @Test
+    public void testServer_t0() throws Exception {
+        // Concurrent queries over the binary protocol must come back as optimal
+        // routes, whichever batch they end up in
+        String[] maze = {
+            "XXXXXXXXX",
+            "XXXX.XXXX",
+            "XXXX.XXXX",
+            "XI...M12X",
+            "XXXX.XX.X",
+            "XXXX3...X",
+            "XXXXXXXXX"
+        };
+        MazeProblem prob = new MazeProblem(maze);
+        int expected = prob.testSolution(Pathfinder.solve(prob))[1];
+        try (PathfinderServer server = new PathfinderServer(new InetSocketAddress("127.0.0.1", 0))) {
+            server.start();
+            try (PathfinderClient client = new PathfinderClient(server.getAddress())) {
+                int mazeId = client.load(maze);
+                try {
+                    client.query(mazeId, new MazeState(0, 0, null));
+                    fail("Starting inside a wall should be rejected");
+                } catch (IOException e) {
+                    // expected
+                }
+                try {
+                    client.query(mazeId, new MazeState(100, -3, null));
+                    fail("Starting outside of the maze should be rejected");
+                } catch (IOException e) {
+                    // expected
+                }
+                
+                // Loading the same maze again shares its registration, which
+                // lasts until every load has been undone
+                assertEquals(mazeId, client.load(maze));
+                client.unload(mazeId);
+                assertEquals(OPT_ERR, expected, prob.testSolution(client.query(mazeId, null))[1]);
+                client.unload(mazeId);
+                try {
+                    client.unload(mazeId);
+                    fail("An unloaded maze should be unknown");
+                } catch (IOException e) {
+                    // expected
+                }
+            }
+            
+            // Mazes of impossible sizes are refused before any tiles are read
+            for (int[] size : new int[][] { { -5, 7 }, { 0, 3 }, { 1 << 16, 1 << 16 } }) {
+                try (SocketChannel channel = SocketChannel.open(server.getAddress())) {
+                    DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+                    out.writeByte(PathfinderServer.LOAD);
+                    out.writeInt(size[0]);
+                    out.writeInt(size[1]);
+                    out.flush();
+                    DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+                    assertEquals(PathfinderServer.ERROR, in.readByte());
+                    assertTrue(in.readUTF().contains(size[0] + "x" + size[1]));
+                }
+            }
+            List<Thread> threads = new ArrayList<>();
+            List<int[]> results = Collections.synchronizedList(new ArrayList<>());
+            for (int t = 0; t < 4; t++) {
+                Thread thread = new Thread(() -> {
+                    try (PathfinderClient client = new PathfinderClient(server.getAddress())) {
+                        int id = client.load(maze);
+                        for (int i = 0; i < 20; i++) {
+                            results.add(prob.testSolution(client.query(id, null)));
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(80, results.size());
+            for (int[] result : results) {
+                assertEquals(SOL_ERR, 1, result[0]);
+                assertEquals(OPT_ERR, expected, result[1]);
+            }
+        }
+        
+        // Mazes past the limit on registered cells are refused until others are
+        // unloaded
+        String[] other = maze.clone();
+        other[3] = other[3].replace('M', '.');
+        System.setProperty(PathfinderServer.MAX_TOTAL_CELLS_PROPERTY, "100");
+        try (PathfinderServer server = new PathfinderServer(new InetSocketAddress("127.0.0.1", 0));
+                PathfinderClient client = new PathfinderClient(server.getAddress())) {
+            server.start();
+            int mazeId = client.load(maze);
+            try {
+                client.load(other);
+                fail("A maze past the registered cell limit should be refused");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("registered cells"));
+            }
+            client.unload(mazeId);
+            client.load(other);
+        } finally {
+            System.clearProperty(PathfinderServer.MAX_TOTAL_CELLS_PROPERTY);
+        }
+    }
+    
+    @Test
+    public void testSampledProfile_t0() throws IOException {
+        // A lazily loaded grid is profiled from a few windows when it is loaded,
+        // reading a fraction of its chunks, and the estimate stays close
+        String[] maze = PathfinderBenchmark.randomMaze(new Random(47), 640, 640, 0.25, 0.1, 3);
+        MazeProfile exact = new MazeProblem(maze).getProfile();
+        assertFalse(exact.isSampled());
+        Path file = Files.createTempFile("pathfinder", ".tiles");
+        try {
+            TiledMazeGrid.write(new StringMazeGrid(maze), file, 32);
+            try (TiledMazeGrid grid = new TiledMazeGrid(file, 400L * 32 * 32)) {
+                MazeProfile sampled = new MazeProblem(grid).getProfile();
+                assertTrue(sampled.isSampled());
+                assertTrue(grid.getLoads() < 200);
+                assertEquals(exact.getCells(), sampled.getCells());
+                assertEquals(exact.getOpenRatio(), sampled.getOpenRatio(), 0.05);
+                assertEquals(exact.getMudFraction(), sampled.getMudFraction(), 0.05);
+                assertEquals(exact.getCorridorRatio(), sampled.getCorridorRatio(), 0.05);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    @Test
+    public void testParallelFailure_t0() {
+        // A worker that fails must stop the whole search and have its error
+        // rethrown, and an interrupted caller must not be told there is no
+        // solution
+        String[] maze = PathfinderBenchmark.randomMaze(new Random(48), 40, 40, 0.2, 0.1, 3);
+        boolean[] broken = { false };
+        MazeProblem prob = new MazeProblem(maze) {
+            @Override
+            public int getCost(int row, int col) {
+                if (broken[0] && row > 20) {
+                    throw new IllegalStateException("cell unreadable");
+                }
+                return super.getCost(row, col);
+            }
+        };
+        prob.getComponents();
+        broken[0] = true;
+        try {
+            ParallelPathfinder.solve(prob, 3);
+            fail("expected the worker's error to be rethrown");
+        } catch (IllegalStateException e) {
+            assertEquals("cell unreadable", e.getMessage());
+        }
+        
+        broken[0] = false;
+        Thread.currentThread().interrupt();
+        try {
+            ParallelPathfinder.solve(prob, 3);
+            fail("expected an interrupted search to be cancelled");
+        } catch (CancellationException e) {
+            // expected
+        } finally {
+            Thread.interrupted();
+        }
+    }
+    
+    @Test
+    public void testMetrics_t0() {
+        MazeProblem prob = new MazeProblem(new String[] {
+            "XXXXXXX",
+            "XI....X",
+            "X.MMM2X",
+            "X.X1X3X",
+            "XXXXXXX"
+        });
+        long solved = PathfinderMetrics.counter("solve.sequential.solved").get();
+        long validated = PathfinderMetrics.histogram("validate.nanos").getCount();
+        prob.testSolution(Pathfinder.solve(prob));
+        assertEquals(solved + 1, PathfinderMetrics.counter("solve.sequential.solved").get());
+        assertEquals(validated + 1, PathfinderMetrics.histogram("validate.nanos").getCount());
+        assertTrue(PathfinderMetrics.toText().contains("solve.sequential.solved "));
+        assertTrue(PathfinderMetrics.toJson().contains("\"solve.sequential.nanos\": {\"count\": "));
+    }
+    
+    @Test
+    public void testBitboard_t0() {
+        // Word-parallel fields must match scalar Dijkstra exactly, across word
+        // boundaries and with mud delaying parts of the wavefront
+        Random rng = new Random(35);
+        for (int cols : new int[] { 7, 63, 64, 65, 150 }) {
+            String[] maze = PathfinderBenchmark.randomMaze(rng, 40, cols, 0.3, 0.2, 3);
+            MazeProblem prob = new MazeProblem(maze);
+            BitboardDistanceField board = BitboardDistanceField.build(prob);
+            for (MazeState key : prob.getKeyStates()) {
+                assertArrayEquals(DistanceField.computeScalar(prob, key.row(), key.col()),
+                        board.compute(key.row(), key.col()));
+            }
+        }
+    }
+    
+    @Test
+    public void testArtifacts_t0() throws IOException {
+        // A prepared maze mapped back from its artifact must answer exactly as the
+        // one that was saved, and an artifact must never be used for another maze
+        String[] maze = PathfinderBenchmark.randomMaze(new Random(36), 30, 70, 0.25, 0.1, 3);
+        MazeProblem prob = new MazeProblem(maze);
+        Path dir = Files.createTempDirectory("pathfinder-artifacts");
+        try {
+            PreparedMaze fresh = PreparedMaze.open(prob, dir);
+            long hits = PathfinderMetrics.counter("prepared.artifact.hits").get();
+            PreparedMaze mapped = PreparedMaze.open(prob, dir);
+            assertEquals(hits + 1, PathfinderMetrics.counter("prepared.artifact.hits").get());
+            assertEquals(fresh.getKeys(), mapped.getKeys());
+            for (int r = 0; r < maze.length; r++) {
+                for (int c = 0; c < maze[r].length(); c++) {
+                    if (maze[r].charAt(c) == 'X') {
+                        continue;
+                    }
+                    MazeState start = new MazeState(c, r, null);
+                    PreparedMaze.Route expected = fresh.route(start), route = mapped.route(start);
+                    if (expected == null) {
+                        assertNull(NOS_ERR, route);
+                        continue;
+                    }
+                    assertEquals(OPT_ERR, expected.getCost(), route.getCost());
+                    assertEquals(expected.getMoves(), route.getMoves());
+                }
+            }
+            
+            // Damaged artifacts must fail to load with an IOException, and then be
+            // prepared and written again
+            Path artifact;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                artifact = files.iterator().next();
+            }
+            byte[] saved = Files.readAllBytes(artifact);
+            byte[] truncated = Arrays.copyOf(saved, saved.length - 100), huge = saved.clone();
+            huge[48] = huge[49] = huge[50] = (byte) 0xFF;
+            huge[51] = 0x7F;
+            for (byte[] damaged : Arrays.asList(truncated, huge)) {
+                Files.write(artifact, damaged);
+                try {
+                    PreparedMaze.load(prob, artifact);
+                    fail("Damaged artifact was loaded");
+                } catch (IOException e) {
+                    // expected
+                }
+                long misses = PathfinderMetrics.counter("prepared.artifact.misses").get();
+                assertEquals(fresh.getKeys(), PreparedMaze.open(prob, dir).getKeys());
+                assertEquals(misses + 1, PathfinderMetrics.counter("prepared.artifact.misses").get());
+                assertArrayEquals(saved, Files.readAllBytes(artifact));
+            }
+            
+            // Distance fields that lead nowhere make routing fail rather than spin
+            byte[] flat = saved.clone();
+            Arrays.fill(flat, 52 + 4 * 3 + 4 * 3 * 3, flat.length, (byte) 1);
+            Files.write(artifact, flat);
+            try {
+                PreparedMaze.load(prob, artifact).route(prob.getInitial()).getMoves();
+                fail("Routes were followed through damaged distance fields");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            Files.write(artifact, saved);
+            
+            String[] other = maze.clone();
+            other[1] = other[1].replace('.', 'M');
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    try {
+                        PreparedMaze.load(new MazeProblem(other), file);
+                        fail("Artifact of a different maze was loaded");
+                    } catch (IOException e) {
+                        // expected
+                    }
+                }
+            }
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+    
+    @Test
+    public void testStates_t0() {
+        // States are canonical per cell, and hash consistently with equals, which
+        // ignores the key piece
+        MazeProblem prob = new MazeProblem(new String[] {
+            "XXXXXX",
+            "XI.M1X",
+            "X3X2.X",
+            "XXXXXX"
+        });
+        assertSame(prob.getState(1, 2), prob.getState(1, 2));
+        assertSame(prob.getInitial(), prob.getState(1, 1));
+        assertEquals("1", prob.getState(1, 4).keyPiece());
+        assertTrue(prob.getKeyStates().contains(prob.getState(2, 3)));
+        assertSame(prob.getState(1, 3), prob.getTransitions(prob.getState(1, 2)).get("R"));
+        assertEquals(new MazeState(4, 1, null), new MazeState(4, 1, "1"));
+        assertEquals(new MazeState(4, 1, null).hashCode(), new MazeState(4, 1, "1").hashCode());
+        assertNotEquals(new MazeState(4, 1, null), null);
+        assertEquals(2, prob.getTransitions(prob.getState(1, 2)).size());
+    }
+    
+    @Test
+    public void testParsing_t0() {
+        // Mazes big enough to be parsed in parallel stripes must find the same
+        // initial state and keys, and report the first invalid cell in row-major
+        // order whichever stripe finds it first
+        String[] maze = PathfinderBenchmark.randomMaze(new Random(39), 1200, 1000, 0.25, 0.1, 3);
+        MazeProblem prob = new MazeProblem(maze);
+        for (int r = 0; r < maze.length; r++) {
+            for (int c = 0; c < maze[r].length(); c++) {
+                char tile = maze[r].charAt(c);
+                if (tile == 'I') {
+                    assertEquals(new MazeState(c, r, null), prob.getInitial());
+                } else if (tile >= '1' && tile <= '3') {
+                    assertEquals(String.valueOf(tile), prob.getState(r, c).keyPiece());
+                    assertTrue(prob.getKeyStates().contains(new MazeState(c, r, null)));
+                }
+            }
+        }
+        assertEquals(3, prob.getKeyCount());
+        
+        maze[900] = maze[900].substring(0, 7) + "?" + maze[900].substring(8);
+        maze[700] = maze[700].substring(0, 950) + "#" + maze[700].substring(951);
+        try {
+            new MazeProblem(maze);
+            fail("Invalid tiles were accepted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("'#' at row 700, column 950"));
+        }
+    }
+    
+    @Test
+    public void testHeatmap_t0() throws IOException {
+        // A heatmap holds exactly the expansions the search reports, per cell and
+        // key-mask layer, and exports all three formats beside the maze file
+        String[] maze = {
+            "XXXXXXX",
+            "XI....X",
+            "X.MMM2X",
+            "X.X1X3X",
+            "XXXXXXX"
+        };
+        MazeProblem prob = new MazeProblem(maze);
+        ExpansionHeatmap heatmap = new ExpansionHeatmap(prob);
+        long before = PathfinderMetrics.counter("solve.sequential.expansions").get();
+        List<String> solution = Pathfinder.solve(prob, heatmap);
+        assertEquals(SOL_ERR, 1, prob.testSolution(solution)[0]);
+        assertEquals(PathfinderMetrics.counter("solve.sequential.expansions").get() - before, heatmap.getTotal());
+        assertEquals(1, heatmap.getCount(1, 1, 0));
+        assertEquals(0, heatmap.getCount(1, 1, 7));
+        assertEquals(0, heatmap.getCount(0, 0, ExpansionHeatmap.ALL_LAYERS));
+        
+        // A heatmap built for another maze, even an identical one, is refused up
+        // front by every solver that records into one
+        MazeProblem other = new MazeProblem(maze);
+        assertTrue(heatmap.covers(prob));
+        assertFalse(heatmap.covers(other));
+        try {
+            Pathfinder.solve(other, heatmap);
+            fail("expected a heatmap of another maze to be refused");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            LowMemoryPathfinder.solve(other, 1 << 10, heatmap);
+            fail("expected a heatmap of another maze to be refused");
+        } catch (IllegalArgumentException e) {
+        }
+        
+        Path dir = Files.createTempDirectory("pathfinder-heatmap");
+        Path mazeFile = dir.resolve("maze.txt");
+        try {
+            heatmap.writeBeside(mazeFile);
+            byte[] pgm = Files.readAllBytes(dir.resolve("maze.txt.heatmap.pgm"));
+            assertEquals("P5\n7 5\n255\n".length() + 7 * 5, pgm.length);
+            assertTrue(Files.size(dir.resolve("maze.txt.heatmap.png")) > 0);
+            List<String> csv = Files.readAllLines(dir.resolve("maze.txt.heatmap.csv"));
+            assertEquals("row,col,mask,expansions", csv.get(0));
+            assertTrue(csv.contains("1,1,0,1"));
+        } finally {
+            for (String ext : new String[] { "pgm", "png", "csv" }) {
+                Files.deleteIfExists(dir.resolve("maze.txt.heatmap." + ext));
+            }
+            Files.delete(dir);
+        }
+    }
+    
+    @Test
+    public void testPlanner_t0() {
+        // The planner profiles the maze, picks an engine by its rules, and
+        // whichever it picks the solution is optimal
+        String[] tiny = { "XXXXXXX", "XI....X", "X.MMM2X", "X.X1X3X", "XXXXXXX" };
+        MazeProblem small = new MazeProblem(tiny), big = new MazeProblem(
+                PathfinderBenchmark.randomMaze(new Random(41), 64, 64, 0.25, 0.1, 3));
+        assertEquals(7 * 5, small.getProfile().getCells());
+        assertEquals(3.0 / 13, small.getProfile().getMudFraction(), 1e-9);
+        
+        EnginePlanner planner = new EnginePlanner(EnginePlanner.Rules.fromProperties(new Properties()));
+        assertEquals(Pathfinder.Engine.SEQUENTIAL, planner.plan(small).getEngine());
+        assertEquals(Pathfinder.Engine.PREPARED, planner.plan(big).getEngine());
+        
+        Properties tuned = new Properties();
+        tuned.setProperty("pathfinder.planner.preparedMinCells", "100000");
+        tuned.setProperty("pathfinder.planner.lowMemoryMinStates", "0");
+        EnginePlanner lowMemory = new EnginePlanner(EnginePlanner.Rules.fromProperties(tuned));
+        assertEquals(Pathfinder.Engine.LOW_MEMORY, lowMemory.plan(big).getEngine());
+        
+        // Grids too big for a distance field per key are not prepared
+        Properties capped = new Properties();
+        capped.setProperty("pathfinder.planner.preparedMaxCells", "4000");
+        EnginePlanner sequential = new EnginePlanner(EnginePlanner.Rules.fromProperties(capped));
+        assertEquals(Pathfinder.Engine.SEQUENTIAL, sequential.plan(big).getEngine());
+        
+        for (MazeProblem prob : Arrays.asList(small, big)) {
+            int expected = prob.testSolution(Pathfinder.solve(prob))[1];
+            for (EnginePlanner p : Arrays.asList(planner, lowMemory)) {
+                int[] result = prob.testSolution(p.solve(prob));
+                assertEquals(SOL_ERR, 1, result[0]);
+                assertEquals(OPT_ERR, expected, result[1]);
+            }
+        }
+    }
+    
+    @Test
+    public void testDominance_t0() {
+        // In an open room with two keys near the start, every cell past them is
+        // reached at least as cheaply with the keys in hand, so the layers without
+        // them stop being expanded there
+        char[][] grid = new char[30][30];
+        for (int r = 0; r < 30; r++) {
+            for (int c = 0; c < 30; c++) {
+                grid[r][c] = (r == 0 || c == 0 || r == 29 || c == 29) ? 'X' : '.';
+            }
+        }
+        grid[1][1] = 'I';
+        grid[3][4] = '1';
+        grid[4][2] = '2';
+        grid[28][28] = '3';
+        String[] maze = new String[30];
+        for (int r = 0; r < 30; r++) {
+            maze[r] = new String(grid[r]);
+        }
+        MazeProblem prob = new MazeProblem(maze);
+        PathfinderMetrics.Counter expansions = PathfinderMetrics.counter("solve.sequential.expansions");
+        long before = expansions.get();
+        int[] result = prob.testSolution(Pathfinder.solve(prob));
+        assertEquals(SOL_ERR, 1, result[0]);
+        assertEquals(OPT_ERR, 56, result[1]);
+        assertTrue(expansions.get() - before < 3 * 28 * 28);
+    }
+    
+    @Test
+    public void testTerrain_t0() {
+        // Terrain tables give glyphs their own entry costs; the costly glyph on
+        // the top row sends the optimal route across the water instead, and is
+        // beyond the bucket queue's cost range, so the heap frontier is used
+        String[] maze = { "XXXXXXX", "XI.S.1X", "X.XXX.X", "X2WWW3X", "XXXXXXX" };
+        TerrainTable sand = TerrainTable.DEFAULT.with('S', 2).with('W', 5);
+        MazeProblem prob = new MazeProblem(maze, sand);
+        assertEquals(2, prob.getCost(1, 3));
+        assertEquals(5, prob.getMaxCost());
+        assertEquals(11, prob.testSolution(Pathfinder.solve(prob))[1]);
+        assertEquals(11, new MazeProblem(maze, TerrainTable.parse("S=2, W=5")).testSolution(
+                LowMemoryPathfinder.solve(prob))[1]);
+        
+        MazeProblem deep = new MazeProblem(maze, sand.with('S', 90));
+        for (Pathfinder.Engine engine : Pathfinder.Engine.values()) {
+            int[] result = deep.testSolution(Pathfinder.solve(deep, engine));
+            assertEquals(SOL_ERR, 1, result[0]);
+            assertEquals(OPT_ERR, 20, result[1]);
+        }
+        assertFalse(new MazeProblem(maze, TerrainTable.parse("S=X, W=5")).isOpen(1, 3));
+        try {
+            new MazeProblem(maze);
+            fail("expected the unknown glyph 'S' to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("'S'"));
+        }
+        
+        // One-way cells can only be entered by the move they allow: entered
+        // from the left, the right half of this maze is open, but otherwise it
+        // is unreachable and no engine finds a solution
+        String[] oneWay = { "XXXXXXX", "XI>..1X", "X.XXX.X", "X2.X.3X", "XXXXXXX" };
+        TerrainTable arrows = TerrainTable.DEFAULT.withOneWay('>', 1, "R").withOneWay('<', 1, "L");
+        MazeProblem forward = new MazeProblem(oneWay, arrows);
+        assertTrue(forward.hasOneWayTerrain());
+        assertEquals(10, forward.testSolution(Pathfinder.solve(forward))[1]);
+        assertEquals(10, forward.testSolution(Pathfinder.solve(forward, Pathfinder.Engine.PREPARED))[1]);
+        
+        oneWay[1] = "XI<..1X";
+        MazeProblem backward = new MazeProblem(oneWay, arrows);
+        assertEquals(-1, backward.testSolution(Arrays.asList("R"))[1]);
+        assertFalse(backward.canReachAllKeys());
+        for (Pathfinder.Engine engine : Pathfinder.Engine.values()) {
+            assertNull(NOS_ERR, Pathfinder.solve(backward, engine));
+        }
+        try {
+            new PreparedMaze(backward);
+            fail("expected one-way terrain to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testRunLength_t0() {
+        // A run-length grid keeps only the open cells, reads back the same
+        // tiles, and sizes the search's tables by open cells; solutions match
+        // those over the dense grid
+        String[] maze = PathfinderBenchmark.streetMaze(new Random(44), 40, 50, 6);
+        RunLengthMazeGrid runs = new RunLengthMazeGrid(maze);
+        MazeProblem dense = new MazeProblem(maze), sparse = new MazeProblem(runs);
+        int open = 0;
+        for (int r = 0; r < 40; r++) {
+            for (int c = 0; c < 50; c++) {
+                assertEquals(maze[r].charAt(c), runs.getTile(r, c));
+                if (maze[r].charAt(c) != 'X') {
+                    assertEquals(open, sparse.getCellIndex(r, c));
+                    assertEquals(r, sparse.getCellRow(open));
+                    assertEquals(c, sparse.getCellCol(open));
+                    open++;
+                } else {
+                    assertEquals(-1, runs.getOpenId(r, c));
+                }
+            }
+        }
+        assertEquals(open, sparse.getCellCount());
+        assertTrue(sparse.getCellCount() < 40 * 50 / 3);
+        assertEquals(dense.getComponents().getComponentCount(), sparse.getComponents().getComponentCount());
+        
+        int expected = dense.testSolution(Pathfinder.solve(dense))[1];
+        ExpansionHeatmap heatmap = new ExpansionHeatmap(sparse);
+        int[] result = sparse.testSolution(Pathfinder.solve(sparse, heatmap));
+        assertEquals(SOL_ERR, 1, result[0]);
+        assertEquals(OPT_ERR, expected, result[1]);
+        assertTrue(heatmap.getTotal() > 0);
+        assertEquals(OPT_ERR, expected, sparse.testSolution(LowMemoryPathfinder.solve(sparse))[1]);
+        
+        // Walls must still be walls in the terrain the problem is read with
+        try {
+            new MazeProblem(runs, TerrainTable.DEFAULT.with('X', 1));
+            fail("expected the dropped walls to be rejected as open terrain");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testLegs_t0 () throws InterruptedException {
+        // The legs of a route, pulled one at a time or published, must add up to
+        // the whole route: the same moves, the same cost, the same key order
+        MazeProblem prob = new MazeProblem(PathfinderBenchmark.randomMaze(new Random(45), 30, 30, 0.2, 0.2, 3));
+        PreparedMaze.Route route = new PreparedMaze(prob).route(prob.getInitial());
+        List<String> moves = new ArrayList<>();
+        List<MazeState> order = new ArrayList<>();
+        int cost = 0;
+        for (Iterator<PreparedMaze.Leg> legs = route.iterateLegs(); legs.hasNext();) {
+            PreparedMaze.Leg leg = legs.next();
+            assertEquals(order.size(), leg.getIndex());
+            assertEquals(leg.getMoveCount(), leg.getMoves().size());
+            moves.addAll(leg.getMoves());
+            order.add(leg.getKey());
+            cost += leg.getCost();
+        }
+        assertEquals(route.getMoves(), moves);
+        assertEquals(route.getKeyOrder(), order);
+        assertEquals(OPT_ERR, route.getCost(), cost);
+        
+        // A subscriber asking for one leg at a time on a single thread still
+        // receives every leg, in order, and then completion
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<String> streamed = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch done = new CountDownLatch(1);
+            Pathfinder.solveLegs(prob, executor).subscribe(new Flow.Subscriber<PreparedMaze.Leg>() {
+                private Flow.Subscription subscription;
+                
+                @Override
+                public void onSubscribe (Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+                
+                @Override
+                public void onNext (PreparedMaze.Leg leg) {
+                    streamed.addAll(leg.getMoves());
+                    subscription.request(1);
+                }
+                
+                @Override
+                public void onError (Throwable error) {
+                    done.countDown();
+                }
+                
+                @Override
+                public void onComplete () {
+                    done.countDown();
+                }
+            });
+            assertTrue(done.await(2, TimeUnit.SECONDS));
+            assertEquals(moves, streamed);
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        String[] walled = {
+            "XXXXX",
+            "XI.1X",
+            "XXXXX",
+            "X2.3X",
+            "XXXXX"
+        };
+        assertNull(NOS_ERR, Pathfinder.solveLegs(new MazeProblem(walled), executor));
+        
+        // One-way terrain is refused whether or not the maze can be solved
+        TerrainTable oneWay = TerrainTable.DEFAULT.withOneWay('>', 1, "R");
+        try {
+            Pathfinder.solveLegs(new MazeProblem(walled, oneWay), executor);
+            fail("expected one-way terrain to be refused");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testTiledLayout_t0 () {
+        // Tiled cell indices must map back to their cells, pad the grid out to
+        // whole tiles with closed cells, and leave every answer unchanged
+        String[] maze = PathfinderBenchmark.randomMaze(new Random(46), 21, 35, 0.2, 0.2, 3);
+        MazeProblem rows = new MazeProblem(maze),
+                    tiled = new MazeProblem(new StringMazeGrid(maze), TerrainTable.DEFAULT, CellLayout.TILED);
+        assertEquals(CellLayout.TILED, tiled.getLayout());
+        assertEquals(3 * 5 * 64, tiled.getCellCount());
+        Set<Integer> indices = new HashSet<>();
+        for (int r = 0; r < 21; r++) {
+            for (int c = 0; c < 35; c++) {
+                int index = tiled.getCellIndex(r, c);
+                assertTrue(indices.add(index));
+                assertEquals(r, tiled.getCellRow(index));
+                assertEquals(c, tiled.getCellCol(index));
+                assertEquals(rows.isOpen(r, c), tiled.isOpen(r, c));
+                assertEquals(rows.getCost(r, c), tiled.getCost(r, c));
+            }
+        }
+        assertEquals(5 * 64 + 1 * 8 + 1, tiled.getCellIndex(9, 1));
+        assertEquals(rows.getComponents().getComponentCount(), tiled.getComponents().getComponentCount());
+        
+        int[] expected = rows.testSolution(Pathfinder.solve(rows)),
+              result = tiled.testSolution(Pathfinder.solve(tiled));
+        assertEquals(SOL_ERR, expected[0], result[0]);
+        assertEquals(OPT_ERR, expected[1], result[1]);
+        
+        // Run-length grids keep numbering their open cells in rows
+        MazeProblem sparse = new MazeProblem(new RunLengthMazeGrid(maze), TerrainTable.DEFAULT, CellLayout.TILED);
+        assertEquals(CellLayout.ROW_MAJOR, sparse.getLayout());
+    }
+    
 }
@@ -0,0 +1,104 @@
+package test.pathfinder.informed.trikey;
+
+import java.io.IOException;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import main.pathfinder.informed.trikey.*;
+
+/**
+ * Load generator for the resident PathfinderServer: loads one random maze,
+ * then has several client connections fire route queries from random start
+ * cells as fast as they are answered, and reports throughput and latency
+ * percentiles. Run with:
+ *
+ * <pre>
+ * java test.pathfinder.informed.trikey.PathfinderLoadGenerator [address|-] [clients] [queries] [size] [seed]
+ * </pre>
+ *
+ * An address of "-" (the default) starts a server in-process on an ephemeral
+ * port.
+ */
+public class PathfinderLoadGenerator {
+
+    public static void main (String[] args) throws Exception {
+        String target = (args.length > 0) ? args[0] : "-";
+        int clients = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+        int queries = (args.length > 2) ? Integer.parseInt(args[2]) : 2000;
+        int size = (args.length > 3) ? Integer.parseInt(args[3]) : 500;
+        long seed = (args.length > 4) ? Long.parseLong(args[4]) : 42;
+
+        PathfinderServer local = null;
+        SocketAddress address;
+        if (target.equals("-")) {
+            local = new PathfinderServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            local.start();
+            address = local.getAddress();
+        } else {
+            address = PathfinderServer.parseAddress(target);
+        }
+
+        String[] maze = PathfinderBenchmark.randomMaze(new Random(seed), size, size,
+                PathfinderBenchmark.WALL_DENSITY, PathfinderBenchmark.MUD_DENSITY, 3);
+        int mazeId;
+        long loadStart = System.nanoTime();
+        try (PathfinderClient client = new PathfinderClient(address)) {
+            mazeId = client.load(maze);
+        }
+        System.out.printf("Loaded %dx%d maze in %.1f ms%n", size, size, (System.nanoTime() - loadStart) / 1e6);
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<long[]>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            final long clientSeed = seed + c;
+            results.add(pool.submit(() -> run(address, mazeId, maze, queries, new Random(clientSeed))));
+        }
+        long[] latencies = new long[clients * queries];
+        int n = 0;
+        for (Future<long[]> result : results) {
+            for (long latency : result.get()) {
+                latencies[n++] = latency;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.printf("%d clients x %d queries: %.0f queries/s%n", clients, queries, latencies.length / seconds);
+        System.out.printf("latency p50 %.3f ms, p99 %.3f ms, max %.3f ms%n", percentile(latencies, 0.50),
+                percentile(latencies, 0.99), latencies[latencies.length - 1] / 1e6);
+        if (local != null) {
+            System.out.printf("server answered %d queries in %d batches%n", local.getQueryCount(),
+                    local.getBatchCount());
+            local.close();
+        }
+    }
+
+    /**
+     * Sends the given number of queries from random open start cells over one
+     * connection, returning each query's round-trip time in nanoseconds.
+     */
+    private static long[] run (SocketAddress address, int mazeId, String[] maze, int queries, Random rng)
+            throws IOException {
+        long[] latencies = new long[queries];
+        try (PathfinderClient client = new PathfinderClient(address)) {
+            for (int i = 0; i < queries; i++) {
+                int r, c;
+                do {
+                    r = rng.nextInt(maze.length);
+                    c = rng.nextInt(maze[0].length());
+                } while (maze[r].charAt(c) == 'X');
+                long sent = System.nanoTime();
+                client.query(mazeId, new MazeState(c, r, null));
+                latencies[i] = System.nanoTime() - sent;
+            }
+        }
+        return latencies;
+    }
+
+    private static double percentile (long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+
+}
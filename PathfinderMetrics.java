@@ -0,0 +1,194 @@
+/*
+ Filename: PathfinderMetrics.java
+ Description: In-process registry of counters and latency histograms updated by the parser, solvers,
+                and validator, dumpable as text or JSON.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Process-wide registry of named counters and latency histograms. Instruments
+ * are looked up once (typically into a static final field) and then updated
+ * with a single striped add, so updating them on hot paths costs next to
+ * nothing. The whole registry can be dumped as text or JSON at any time.
+ */
+public class PathfinderMetrics {
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    private PathfinderMetrics() {
+    }
+
+    /**
+     * Returns the counter with the given name, registering it on first use.
+     *
+     * @param name The counter's name, e.g. "solve.expansions".
+     * @return The Counter.
+     */
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * Returns the histogram with the given name, registering it on first use.
+     *
+     * @param name The histogram's name, e.g. "solve.nanos".
+     * @return The Histogram.
+     */
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Dumps every instrument as text, one per line, sorted by name.
+     *
+     * @return The text dump.
+     */
+    public static String toText() {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, Counter> counter : new TreeMap<>(COUNTERS).entrySet()) {
+            result.append(counter.getKey()).append(' ').append(counter.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> histogram : new TreeMap<>(HISTOGRAMS).entrySet()) {
+            Histogram h = histogram.getValue();
+            result.append(String.format(Locale.ROOT, "%s count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d%n",
+                    histogram.getKey(), h.getCount(), h.getMean(), h.getPercentile(0.5), h.getPercentile(0.9),
+                    h.getPercentile(0.99), h.getMax()));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Dumps every instrument as a JSON object of the form
+     * <code>{"counters": {name: value, ...}, "histograms": {name: {"count": ...,
+     * "mean": ..., "p50": ..., "p90": ..., "p99": ..., "max": ...}, ...}}</code>.
+     *
+     * @return The JSON dump.
+     */
+    public static String toJson() {
+        StringJoiner counters = new StringJoiner(", ", "{", "}");
+        for (Map.Entry<String, Counter> counter : new TreeMap<>(COUNTERS).entrySet()) {
+            counters.add(quote(counter.getKey()) + ": " + counter.getValue().get());
+        }
+        StringJoiner histograms = new StringJoiner(", ", "{", "}");
+        for (Map.Entry<String, Histogram> histogram : new TreeMap<>(HISTOGRAMS).entrySet()) {
+            Histogram h = histogram.getValue();
+            histograms.add(String.format(Locale.ROOT,
+                    "%s: {\"count\": %d, \"mean\": %.1f, \"p50\": %d, \"p90\": %d, \"p99\": %d, \"max\": %d}",
+                    quote(histogram.getKey()), h.getCount(), h.getMean(), h.getPercentile(0.5), h.getPercentile(0.9),
+                    h.getPercentile(0.99), h.getMax()));
+        }
+        return "{\"counters\": " + counters + ", \"histograms\": " + histograms + "}";
+    }
+
+    private static String quote(String name) {
+        return '"' + name.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    /**
+     * A monotonically increasing count.
+     */
+    public static class Counter {
+
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+    }
+
+    /**
+     * Log-linear histogram of non-negative values, in the style of an HDR
+     * histogram: values below 32 are counted exactly, and larger values fall
+     * into one of 16 linear sub-buckets per power of two, so every recorded value
+     * is known to within about 6%. Recording is a few bit operations and one
+     * atomic increment.
+     */
+    public static class Histogram {
+
+        private static final int EXACT = 32, SUB_BITS = 4, SUB_BUCKETS = 1 << SUB_BITS;
+        private final AtomicLongArray counts = new AtomicLongArray(EXACT + 59 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder(), sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Records one value; negative values are recorded as 0.
+         *
+         * @param value The value to record, e.g. a latency in nanoseconds.
+         */
+        public void record(long value) {
+            value = Math.max(0, value);
+            counts.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            if (value > max.get()) {
+                max.accumulateAndGet(value, Math::max);
+            }
+        }
+
+        private static int bucket(long value) {
+            if (value < EXACT) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return EXACT + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        private static long lowerBound(int bucket) {
+            if (bucket < EXACT) {
+                return bucket;
+            }
+            int shift = (bucket - EXACT) / SUB_BUCKETS + 1;
+            return (long) (SUB_BUCKETS + (bucket - EXACT) % SUB_BUCKETS) << shift;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMean() {
+            long n = count.sum();
+            return (n == 0) ? 0 : (double) sum.sum() / n;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Returns the value below which the given fraction of recorded values fall,
+         * as the lower bound of its bucket.
+         *
+         * @param fraction A fraction between 0 and 1, e.g. 0.99.
+         * @return The percentile value, or 0 if nothing has been recorded.
+         */
+        public long getPercentile(double fraction) {
+            long n = count.sum(), target = (long) Math.ceil(fraction * n), seen = 0;
+            for (int bucket = 0; bucket < counts.length() && n > 0; bucket++) {
+                seen += counts.get(bucket);
+                if (seen >= Math.max(1, target)) {
+                    return lowerBound(bucket);
+                }
+            }
+            return 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,510 @@
+/*
+ Filename: PathfinderServer.java
+ Description: Resident pathfinding service that keeps prepared mazes loaded and answers route queries
+                over a compact binary protocol, batching concurrent queries against the same maze.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A long-running local pathfinding service. Mazes are loaded once, prepared
+ * into a {@link PreparedMaze} and kept in a registry under an integer id; route
+ * queries then only pay for the lookups and the small ordering DP, on a JVM
+ * that stays warm. Queries that arrive for the same maze while an earlier batch
+ * is being answered are coalesced into the next batch, and queries in a batch
+ * that share a start cell are answered by a single route.
+ * <p>
+ * The server listens on TCP or, given a socket file path, on a Unix domain
+ * socket. Every request is a one-byte opcode followed by its payload, and every
+ * response starts with a one-byte status (all integers big-endian):
+ *
+ * <pre>
+ * LOAD   (1): int rows, int cols, byte[rows * cols] tiles -&gt; status, int mazeId
+ * QUERY  (2): int mazeId, int row, int col                -&gt; status, int cost, int moveCount, byte[] packed
+ * UNLOAD (3): int mazeId                                  -&gt; status
+ * </pre>
+ *
+ * A QUERY start of (-1, -1) means the maze's own initial state. Moves are
+ * packed by {@link PackedPath}. A status of ERROR is followed by a UTF message.
+ * Tiles are read with the terrain given by the system property
+ * {@link TerrainTable#PROPERTY}, if any. A LOAD of a maze with no cells, or
+ * with more than the cells given by the system property
+ * {@link #MAX_CELLS_PROPERTY}, is answered with ERROR, and the connection is
+ * then closed, since its tiles are never read.
+ * <p>
+ * A LOAD of a maze that is already loaded (the same tiles under the same
+ * terrain) answers with the id it was given before, without preparing it again;
+ * such an id stays registered until it has been unloaded as often as it was
+ * loaded. A LOAD that would take the cells of all registered mazes past the
+ * limit given by the system property {@link #MAX_TOTAL_CELLS_PROPERTY} is
+ * answered with ERROR.
+ */
+public class PathfinderServer implements Closeable {
+
+    // Protocol
+    // -----------------------------------------------------------------------------
+    public static final byte LOAD = 1, QUERY = 2, UNLOAD = 3;
+    public static final byte OK = 0, NO_SOLUTION = 1, UNKNOWN_MAZE = 2, ERROR = 3;
+
+    /**
+     * Name of the system property limiting the cells of a loaded maze, and the
+     * limit if it is not set.
+     */
+    public static final String MAX_CELLS_PROPERTY = "pathfinder.server.maxCells";
+    public static final long DEFAULT_MAX_CELLS = 1 << 26;
+
+    /**
+     * Name of the system property limiting the cells of all registered mazes
+     * together, and the limit if it is not set.
+     */
+    public static final String MAX_TOTAL_CELLS_PROPERTY = "pathfinder.server.maxTotalCells";
+    public static final long DEFAULT_MAX_TOTAL_CELLS = 1L << 28;
+
+    // Fields
+    // -----------------------------------------------------------------------------
+    private final ServerSocketChannel server;
+    private final SocketAddress address;
+    private final ExecutorService connections, solvers;
+    private final Path artifacts;
+    private final TerrainTable terrain = TerrainTable.fromProperties(System.getProperties());
+    private final long maxCells = Math.min(Integer.MAX_VALUE, Long.getLong(MAX_CELLS_PROPERTY, DEFAULT_MAX_CELLS));
+    private final long maxTotalCells = Long.getLong(MAX_TOTAL_CELLS_PROPERTY, DEFAULT_MAX_TOTAL_CELLS);
+    private final Map<Integer, RegisteredMaze> mazes = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    // The id of each registered maze by grid hash, and the cells of every
+    // registered maze plus those of mazes being prepared, all guarded by byHash
+    private final Map<ByteBuffer, Integer> byHash = new HashMap<>();
+    private long registeredCells;
+    private final LongAdder batches = new LongAdder(), queries = new LongAdder();
+
+    // Constructor
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Binds a new server to the given address. Pass an InetSocketAddress (port 0
+     * for an ephemeral port) for TCP, or a UnixDomainSocketAddress for a Unix
+     * domain socket. Call {@link #start()} to begin accepting connections.
+     *
+     * @param address The address to listen on.
+     * @throws IOException If the address cannot be bound.
+     */
+    public PathfinderServer(SocketAddress address) throws IOException {
+        this(address, null);
+    }
+
+    /**
+     * Binds a new server to the given address that keeps the preprocessing of
+     * every maze it loads as an artifact in the given directory, so that a
+     * restarted server maps a known maze instead of preparing it again.
+     *
+     * @param address   The address to listen on.
+     * @param artifacts The artifact directory, or null to keep nothing.
+     * @throws IOException If the address cannot be bound.
+     */
+    public PathfinderServer(SocketAddress address, Path artifacts) throws IOException {
+        this.artifacts = artifacts;
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            this.server = ServerSocketChannel.open();
+        }
+        server.bind(address);
+        this.address = server.getLocalAddress();
+        this.connections = Executors.newCachedThreadPool(daemon("pathfinder-connection"));
+        this.solvers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                daemon("pathfinder-solver"));
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Methods
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Starts the server on the address given on the command line: a port, a
+     * host:port pair, or the path of a Unix domain socket file. Defaults to port
+     * 7878 on localhost. An optional second argument names the directory to keep
+     * preprocessing artifacts in.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        PathfinderServer server = new PathfinderServer(parseAddress(args.length > 0 ? args[0] : "7878"),
+                (args.length > 1) ? Paths.get(args[1]) : null);
+        server.start();
+        System.out.println("Pathfinder server listening on " + server.getAddress());
+        Thread.currentThread().join();
+    }
+
+    /**
+     * Parses an address given as a port, a host:port pair, or a socket file path
+     * (anything containing a path separator).
+     *
+     * @param text The address to parse.
+     * @return The SocketAddress it names.
+     */
+    public static SocketAddress parseAddress(String text) {
+        if (text.contains("/") || text.contains(File.separator)) {
+            return UnixDomainSocketAddress.of(text);
+        }
+        int colon = text.lastIndexOf(':');
+        if (colon == -1) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(text));
+        }
+        return new InetSocketAddress(text.substring(0, colon), Integer.parseInt(text.substring(colon + 1)));
+    }
+
+    /**
+     * Returns the address the server is bound to, with the actual port if an
+     * ephemeral one was requested.
+     *
+     * @return The bound address.
+     */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return The number of batches answered so far.
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * @return The number of queries answered so far.
+     */
+    public long getQueryCount() {
+        return queries.sum();
+    }
+
+    /**
+     * Starts accepting connections on a background thread, serving each one on
+     * its own thread.
+     */
+    public void start() {
+        connections.execute(() -> {
+            while (server.isOpen()) {
+                try {
+                    SocketChannel channel = server.accept();
+                    connections.execute(() -> serve(channel));
+                } catch (IOException e) {
+                    return; // server closed
+                }
+            }
+        });
+    }
+
+    /**
+     * Answers the requests of one connection, in order, until the client hangs
+     * up.
+     */
+    private void serve(SocketChannel channel) {
+        try (channel;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            while (true) {
+                int opcode = in.read();
+                if (opcode == -1) {
+                    return;
+                }
+                switch (opcode) {
+                    case LOAD:
+                        if (!load(in, out)) {
+                            out.flush();
+                            return;
+                        }
+                        break;
+                    case QUERY:
+                        query(in, out);
+                        break;
+                    case UNLOAD:
+                        out.writeByte(unload(in.readInt()) ? OK : UNKNOWN_MAZE);
+                        break;
+                    default:
+                        out.writeByte(ERROR);
+                        out.writeUTF("Unknown opcode " + opcode);
+                        out.flush();
+                        return;
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away mid-request; nothing left to answer
+        }
+    }
+
+    /**
+     * Loads the maze sent by the client, answering with its id or an error.
+     *
+     * @return false if the maze's size was rejected before its tiles were read,
+     *         which leaves the rest of the request unread.
+     */
+    private boolean load(DataInputStream in, DataOutputStream out) throws IOException {
+        int rows = in.readInt(), cols = in.readInt();
+        if (rows <= 0 || cols <= 0 || (long) rows * cols > maxCells) {
+            out.writeByte(ERROR);
+            out.writeUTF("Maze of " + rows + "x" + cols + " cells is empty or larger than " + maxCells + " cells");
+            return false;
+        }
+        byte[] tiles = new byte[rows * cols];
+        in.readFully(tiles);
+        String[] maze = new String[rows];
+        for (int row = 0; row < rows; row++) {
+            maze[row] = new String(tiles, row * cols, cols, StandardCharsets.ISO_8859_1);
+        }
+        MazeProblem problem;
+        try {
+            problem = new MazeProblem(maze, terrain);
+        } catch (IllegalArgumentException e) {
+            out.writeByte(ERROR);
+            out.writeUTF(String.valueOf(e.getMessage()));
+            return true;
+        }
+
+        // Answer with the id of the same maze if it is already registered, and
+        // otherwise reserve its cells under the limit before preparing it
+        ByteBuffer hash = ByteBuffer.wrap(PreparedMaze.gridHash(problem));
+        long cells = (long) rows * cols;
+        synchronized (byHash) {
+            Integer existing = reuse(hash);
+            if (existing != null) {
+                out.writeByte(OK);
+                out.writeInt(existing);
+                return true;
+            }
+            if (registeredCells + cells > maxTotalCells) {
+                out.writeByte(ERROR);
+                out.writeUTF("Loading " + cells + " more cells would exceed the limit of " + maxTotalCells
+                        + " registered cells");
+                return true;
+            }
+            registeredCells += cells;
+        }
+        RegisteredMaze registered;
+        try {
+            registered = new RegisteredMaze(problem, hash,
+                    (artifacts == null) ? new PreparedMaze(problem) : PreparedMaze.open(problem, artifacts));
+        } catch (IllegalArgumentException | IOException e) {
+            synchronized (byHash) {
+                registeredCells -= cells;
+            }
+            out.writeByte(ERROR);
+            out.writeUTF(String.valueOf(e.getMessage()));
+            return true;
+        }
+
+        // Another connection may have registered the same maze meanwhile
+        int id;
+        synchronized (byHash) {
+            Integer existing = reuse(hash);
+            if (existing != null) {
+                registeredCells -= cells;
+                id = existing;
+            } else {
+                id = nextId.getAndIncrement();
+                mazes.put(id, registered);
+                byHash.put(hash, id);
+            }
+        }
+        out.writeByte(OK);
+        out.writeInt(id);
+        return true;
+    }
+
+    /**
+     * Returns the id of the registered maze with the given grid hash, counting
+     * one more load of it, or null if there is none. Callers hold byHash.
+     */
+    private Integer reuse(ByteBuffer hash) {
+        Integer id = byHash.get(hash);
+        if (id != null) {
+            mazes.get(id).loads++;
+        }
+        return id;
+    }
+
+    /**
+     * Counts one unload of the maze with the given id, removing it from the
+     * registry once it has been unloaded as often as it was loaded.
+     *
+     * @return false if no maze has the given id.
+     */
+    private boolean unload(int id) {
+        synchronized (byHash) {
+            RegisteredMaze maze = mazes.get(id);
+            if (maze == null) {
+                return false;
+            }
+            if (--maze.loads == 0) {
+                mazes.remove(id);
+                byHash.remove(maze.hash);
+                registeredCells -= (long) maze.problem.getRows() * maze.problem.getCols();
+            }
+            return true;
+        }
+    }
+
+    private void query(DataInputStream in, DataOutputStream out) throws IOException {
+        RegisteredMaze maze = mazes.get(in.readInt());
+        int row = in.readInt(), col = in.readInt();
+        if (maze == null) {
+            out.writeByte(UNKNOWN_MAZE);
+            return;
+        }
+        Answer answer;
+        try {
+            answer = maze.submit(row, col).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a route");
+        } catch (ExecutionException e) {
+            out.writeByte(ERROR);
+            out.writeUTF(String.valueOf(e.getCause().getMessage()));
+            return;
+        }
+        if (answer == null) {
+            out.writeByte(NO_SOLUTION);
+            return;
+        }
+        out.writeByte(OK);
+        out.writeInt(answer.cost);
+        out.writeInt(answer.moveCount);
+        out.write(answer.packed);
+    }
+
+    /**
+     * Stops accepting connections and shuts down the server's threads.
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        connections.shutdownNow();
+        solvers.shutdownNow();
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+        }
+    }
+
+    /**
+     * A loaded maze along with the queries waiting to be answered against it. At
+     * most one batch per maze is scheduled at a time; queries arriving meanwhile
+     * pile up and form the next batch.
+     */
+    private class RegisteredMaze {
+
+        final MazeProblem problem;
+        final ByteBuffer hash;
+        final PreparedMaze prepared;
+        final ConcurrentLinkedQueue<Query> pending = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        // LOADs not yet matched by an UNLOAD, guarded by byHash
+        int loads = 1;
+
+        RegisteredMaze(MazeProblem problem, ByteBuffer hash, PreparedMaze prepared) {
+            this.problem = problem;
+            this.hash = hash;
+            this.prepared = prepared;
+        }
+
+        CompletableFuture<Answer> submit(int row, int col) {
+            Query query = new Query(row, col);
+            pending.add(query);
+            if (scheduled.compareAndSet(false, true)) {
+                solvers.execute(this::drain);
+            }
+            return query.answer;
+        }
+
+        /**
+         * Answers batches until no queries are left, then gives up the schedule;
+         * the recheck afterwards catches queries that slipped in just before.
+         */
+        private void drain() {
+            do {
+                List<Query> batch = new ArrayList<>();
+                for (Query query; (query = pending.poll()) != null;) {
+                    batch.add(query);
+                }
+                if (!batch.isEmpty()) {
+                    answer(batch);
+                }
+                scheduled.set(false);
+            } while (!pending.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+
+        private void answer(List<Query> batch) {
+            batches.increment();
+            queries.add(batch.size());
+            Map<Integer, Answer> byStart = new HashMap<>();
+            for (Query query : batch) {
+                try {
+                    boolean initial = query.row == -1 && query.col == -1;
+                    if (!initial && (query.row < 0 || query.row >= problem.getRows() || query.col < 0
+                            || query.col >= problem.getCols())) {
+                        throw new IllegalArgumentException("Start (" + query.row + ", " + query.col
+                                + ") lies outside of the maze");
+                    }
+                    MazeState start = initial ? problem.getInitial() : problem.getState(query.row, query.col);
+                    int cell = start.row() * problem.getCols() + start.col();
+                    if (!byStart.containsKey(cell)) {
+                        PreparedMaze.Route route = prepared.route(start);
+                        byStart.put(cell, (route == null) ? null : new Answer(route));
+                    }
+                    query.answer.complete(byStart.get(cell));
+                } catch (RuntimeException e) {
+                    query.answer.completeExceptionally(e);
+                }
+            }
+        }
+
+    }
+
+    private static class Query {
+
+        final int row, col;
+        final CompletableFuture<Answer> answer = new CompletableFuture<>();
+
+        Query(int row, int col) {
+            this.row = row;
+            this.col = col;
+        }
+
+    }
+
+    private static class Answer {
+
+        final int cost, moveCount;
+        final byte[] packed;
+
+        Answer(PreparedMaze.Route route) {
+            List<String> moves = route.getMoves();
+            this.cost = route.getCost();
+            this.moveCount = moves.size();
+            this.packed = PackedPath.pack(moves);
+        }
+
+    }
+
+}
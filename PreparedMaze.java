@@ -0,0 +1,680 @@
+/*
+ Filename: PreparedMaze.java
+ Description: Precomputes the key distance fields and key-to-key leg costs of a fixed maze so that
+                key-collection routes from many different start positions can be answered cheaply.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A reusable query engine for a single, fixed MazeProblem. Preparation computes
+ * one distance field outward from every key and the matrix of key-to-key leg
+ * costs; after that, a route from any start cell costs one distance lookup per
+ * key plus a small dynamic program over the order in which the keys are
+ * visited. The actual moves of a route are only reconstructed if asked for.
+ * Mazes whose terrain has one-way glyphs cannot be prepared.
+ * <p>
+ * Since preparing a big maze takes a while, a PreparedMaze can be saved as a
+ * flat artifact file and mapped straight back into memory by a later process.
+ * Artifacts are keyed by a SHA-256 hash of the maze's grid and by the format
+ * {@link #ARTIFACT_VERSION}; all integers are little-endian:
+ *
+ * <pre>
+ * int magic, int version, byte[32] gridHash, int rows, int cols, int keyCount,
+ * int[keyCount] keyCells, int[keyCount * keyCount] legs,
+ * int[rows * cols] field... (one per key)
+ * </pre>
+ */
+public class PreparedMaze {
+
+    // Fields
+    // -----------------------------------------------------------------------------
+    private final MazeProblem problem;
+    private final MazeState[] keys;
+    private final IntBuffer[] fields;
+    private final int[][] legs;
+    private static final int ARTIFACT_MAGIC = 0x4D5A504D;
+
+    /**
+     * Version of the artifact file format; bumped whenever the layout or the
+     * meaning of its contents changes, so that stale artifacts are never read.
+     */
+    public static final int ARTIFACT_VERSION = 2;
+    private static final PathfinderMetrics.Histogram PREPARE_NANOS = PathfinderMetrics
+            .histogram("preprocess.distanceFields.nanos");
+    private static final PathfinderMetrics.Counter ROUTES = PathfinderMetrics.counter("prepared.routes"),
+            ARTIFACT_HITS = PathfinderMetrics.counter("prepared.artifact.hits"),
+            ARTIFACT_MISSES = PathfinderMetrics.counter("prepared.artifact.misses"),
+            LEGS_STREAMED = PathfinderMetrics.counter("prepared.legs.streamed");
+
+    // Constructor
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Prepares the given MazeProblem for repeated route queries by computing the
+     * distance field from each of its keys and the leg cost between every pair of
+     * keys.
+     *
+     * @param problem The MazeProblem to prepare.
+     */
+    public PreparedMaze(MazeProblem problem) {
+        PathfinderEvents.Preprocess event = new PathfinderEvents.Preprocess();
+        event.begin();
+        long start = System.nanoTime();
+        requireTwoWay(problem);
+        this.problem = problem;
+
+        // Keys are ordered by position so that preparation is deterministic
+        List<MazeState> sorted = new ArrayList<>(problem.getKeyStates());
+        sorted.sort(Comparator.comparingInt(MazeState::row).thenComparingInt(MazeState::col));
+        this.keys = sorted.toArray(new MazeState[0]);
+
+        int[][] computed = DistanceField.computeAll(problem, keys);
+        this.fields = new IntBuffer[keys.length];
+        for (int k = 0; k < keys.length; k++) {
+            fields[k] = IntBuffer.wrap(computed[k]);
+        }
+        this.legs = new int[keys.length][keys.length];
+        for (int from = 0; from < keys.length; from++) {
+            for (int to = 0; to < keys.length; to++) {
+                legs[from][to] = distanceToKey(keys[from].row(), keys[from].col(), to);
+            }
+        }
+        PREPARE_NANOS.record(System.nanoTime() - start);
+        event.phase = "distanceFields";
+        event.cells = (long) problem.getRows() * problem.getCols() * keys.length;
+        event.commit();
+    }
+
+    private PreparedMaze(MazeProblem problem, MazeState[] keys, IntBuffer[] fields, int[][] legs) {
+        this.problem = problem;
+        this.keys = keys;
+        this.fields = fields;
+        this.legs = legs;
+    }
+
+    // Methods
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Returns the MazeProblem that this PreparedMaze answers queries for.
+     *
+     * @return The prepared MazeProblem.
+     */
+    public MazeProblem getProblem() {
+        return problem;
+    }
+
+    /**
+     * Returns the keys of the maze in the order that leg indices refer to them.
+     *
+     * @return The key MazeStates, ordered by row and then column.
+     */
+    public List<MazeState> getKeys() {
+        return Collections.unmodifiableList(Arrays.asList(keys));
+    }
+
+    /**
+     * Returns the cost of the cheapest path from one key to another.
+     *
+     * @param from Index of the key the leg starts at.
+     * @param to   Index of the key the leg ends at.
+     * @return The leg cost, or {@link DistanceField#UNREACHABLE}.
+     */
+    public int getLegCost(int from, int to) {
+        return legs[from][to];
+    }
+
+    /**
+     * Finds the cheapest route that collects every key in the maze, starting
+     * from the given cell.
+     *
+     * @param start The MazeState to start the route from; must be an open cell.
+     * @return The optimal Route, or null if some key cannot be reached.
+     */
+    public Route route(MazeState start) {
+        if (!problem.isOpen(start.row(), start.col())) {
+            throw new IllegalArgumentException("Route start " + start + " is not an open cell of the maze");
+        }
+        ROUTES.increment();
+        int n = keys.length, full = (1 << n) - 1;
+        if (n == 0) {
+            return new Route(start, new int[0], 0);
+        }
+
+        // One lookup per key gives the cost of the first leg to that key
+        int[] first = new int[n];
+        for (int k = 0; k < n; k++) {
+            first[k] = distanceToKey(start.row(), start.col(), k);
+            if (first[k] == DistanceField.UNREACHABLE) {
+                return null;
+            }
+        }
+
+        // best[mask][last]: cheapest cost of visiting exactly the keys in mask,
+        // ending at key last; classic subset DP over visiting orders
+        long[][] best = new long[1 << n][n];
+        for (long[] row : best) {
+            Arrays.fill(row, Long.MAX_VALUE);
+        }
+        for (int k = 0; k < n; k++) {
+            best[1 << k][k] = first[k];
+        }
+        for (int mask = 1; mask <= full; mask++) {
+            for (int last = 0; last < n; last++) {
+                long cost = best[mask][last];
+                if (cost == Long.MAX_VALUE || (mask & (1 << last)) == 0) {
+                    continue;
+                }
+                for (int next = 0; next < n; next++) {
+                    if ((mask & (1 << next)) != 0 || legs[last][next] == DistanceField.UNREACHABLE) {
+                        continue;
+                    }
+                    long candidate = cost + legs[last][next];
+                    if (candidate < best[mask | (1 << next)][next]) {
+                        best[mask | (1 << next)][next] = candidate;
+                    }
+                }
+            }
+        }
+
+        // Pick the cheapest final key, then walk the DP table backwards to recover
+        // the order in which the keys were visited
+        int last = 0;
+        for (int k = 1; k < n; k++) {
+            if (best[full][k] < best[full][last]) {
+                last = k;
+            }
+        }
+        if (best[full][last] == Long.MAX_VALUE) {
+            return null;
+        }
+        int[] order = new int[n];
+        int mask = full;
+        for (int i = n - 1; i > 0; i--) {
+            order[i] = last;
+            int prevMask = mask & ~(1 << last);
+            for (int prev = 0; prev < n; prev++) {
+                if ((prevMask & (1 << prev)) != 0 && legs[prev][last] != DistanceField.UNREACHABLE
+                        && best[prevMask][prev] + legs[prev][last] == best[mask][last]) {
+                    last = prev;
+                    break;
+                }
+            }
+            mask = prevMask;
+        }
+        order[0] = last;
+        return new Route(start, order, (int) best[full][order[n - 1]]);
+    }
+
+    /**
+     * Returns the PreparedMaze of the given problem from the artifact directory,
+     * mapping the artifact saved by an earlier process if there is a readable
+     * one, and otherwise preparing the maze and saving its artifact for next
+     * time.
+     *
+     * @param problem   The MazeProblem to prepare.
+     * @param directory The directory holding artifacts, named by grid hash and
+     *                  format version.
+     * @return The PreparedMaze.
+     * @throws IOException If the directory cannot be read or written.
+     */
+    public static PreparedMaze open(MazeProblem problem, Path directory) throws IOException {
+        byte[] hash = gridHash(problem);
+        Path file = directory.resolve(toHex(hash) + ".v" + ARTIFACT_VERSION + ".prepared");
+        PathfinderEvents.CacheLookup event = new PathfinderEvents.CacheLookup();
+        event.begin();
+        event.cache = "preparedArtifact";
+        if (Files.exists(file)) {
+            try {
+                PreparedMaze mapped = map(problem, file, hash);
+                ARTIFACT_HITS.increment();
+                event.hit = true;
+                event.commit();
+                return mapped;
+            } catch (IOException e) {
+                // A damaged artifact is simply prepared and written again
+            }
+        }
+        event.commit();
+        ARTIFACT_MISSES.increment();
+        PreparedMaze prepared = new PreparedMaze(problem);
+        Files.createDirectories(directory);
+
+        // Written under a temporary name and then renamed, so that a concurrent
+        // or crashed writer never leaves a partial artifact behind
+        Path partial = Files.createTempFile(directory, file.getFileName().toString(), ".partial");
+        try {
+            prepared.save(partial);
+            Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+        return prepared;
+    }
+
+    /**
+     * Saves this PreparedMaze as an artifact file that {@link #load} can map back
+     * into memory.
+     *
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(Path file) throws IOException {
+        int n = keys.length;
+        ByteBuffer header = ByteBuffer.allocate(52 + 4 * n + 4 * n * n).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(ARTIFACT_MAGIC).putInt(ARTIFACT_VERSION).put(gridHash(problem));
+        header.putInt(problem.getRows()).putInt(problem.getCols()).putInt(n);
+        for (MazeState key : keys) {
+            header.putInt(key.row() * problem.getCols() + key.col());
+        }
+        for (int[] row : legs) {
+            for (int leg : row) {
+                header.putInt(leg);
+            }
+        }
+        header.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            ByteBuffer block = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            for (IntBuffer field : fields) {
+                for (int i = 0, cells = field.limit(); i < cells;) {
+                    block.clear();
+                    for (; i < cells && block.hasRemaining(); i++) {
+                        block.putInt(field.get(i));
+                    }
+                    block.flip();
+                    writeFully(channel, block);
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the artifact file of the given problem into memory. Only the header is
+     * read; distance fields are paged in by the OS as routes touch them.
+     *
+     * @param problem The MazeProblem the artifact was saved from.
+     * @param file    The artifact file.
+     * @return The PreparedMaze backed by the mapped file.
+     * @throws IOException If the file cannot be read, is not an artifact of the
+     *                     current version, or was saved from a different grid.
+     */
+    public static PreparedMaze load(MazeProblem problem, Path file) throws IOException {
+        return map(problem, file, gridHash(problem));
+    }
+
+    private static PreparedMaze map(MazeProblem problem, Path file, byte[] hash) throws IOException {
+        requireTwoWay(problem);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(52).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != ARTIFACT_MAGIC || header.getInt() != ARTIFACT_VERSION) {
+                throw new IOException(file + " is not a version " + ARTIFACT_VERSION + " prepared maze artifact");
+            }
+            byte[] saved = new byte[hash.length];
+            header.get(saved);
+            int rows = header.getInt(), cols = header.getInt(), n = header.getInt();
+            if (!Arrays.equals(saved, hash) || rows != problem.getRows() || cols != problem.getCols()) {
+                throw new IOException(file + " was prepared from a different maze");
+            }
+            if (n != problem.getKeyCount()) {
+                throw new IOException(file + " holds " + n + " keys rather than the maze's "
+                        + problem.getKeyCount());
+            }
+            long fieldBytes = 4L * rows * cols, offset = 52 + 4L * n + 4L * n * n;
+            if (fieldBytes > Integer.MAX_VALUE) {
+                throw new IOException(file + " has distance fields too large to map");
+            }
+            if (channel.size() != offset + n * fieldBytes) {
+                throw new IOException(file + " is " + channel.size() + " bytes long rather than "
+                        + (offset + n * fieldBytes));
+            }
+
+            ByteBuffer tables = ByteBuffer.allocate(4 * n + 4 * n * n).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, tables, 52);
+            tables.flip();
+            MazeState[] keys = new MazeState[n];
+            Set<MazeState> expected = problem.getKeyStates();
+            for (int k = 0, previous = -1; k < n; k++) {
+                int cell = tables.getInt();
+                if (cell <= previous || cell >= rows * cols) {
+                    throw new IOException(file + " does not hold the keys of the maze in order");
+                }
+                keys[k] = problem.getState(cell / cols, cell % cols);
+                if (!expected.contains(keys[k])) {
+                    throw new IOException(file + " does not hold the keys of the maze in order");
+                }
+                previous = cell;
+            }
+            int[][] legs = new int[n][n];
+            for (int[] row : legs) {
+                for (int to = 0; to < n; to++) {
+                    row[to] = tables.getInt();
+                }
+            }
+
+            IntBuffer[] fields = new IntBuffer[n];
+            for (int k = 0; k < n; k++, offset += fieldBytes) {
+                fields[k] = channel.map(FileChannel.MapMode.READ_ONLY, offset, fieldBytes)
+                        .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            }
+            return new PreparedMaze(problem, keys, fields, legs);
+        }
+    }
+
+    /**
+     * Returns the SHA-256 hash of the given problem's grid: its dimensions
+     * followed by every tile and its entry cost under the maze's terrain table,
+     * in row-major order.
+     */
+    static byte[] gridHash(MazeProblem problem) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required of every Java platform", e);
+        }
+        int rows = problem.getRows(), cols = problem.getCols();
+        ByteBuffer block = ByteBuffer.allocate(Math.max(8, 2 * cols));
+        block.putInt(rows).putInt(cols).flip();
+        digest.update(block);
+        for (int row = 0; row < rows; row++) {
+            block.clear();
+            for (int col = 0; col < cols; col++) {
+                block.put((byte) problem.getTile(row, col)).put((byte) problem.getCost(row, col));
+            }
+            block.flip();
+            digest.update(block);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Rejects mazes with one-way terrain: a path to a key is read off that key's
+     * outward distance field as if walked in reverse, which only holds when
+     * every move can be undone.
+     */
+    private static void requireTwoWay(MazeProblem problem) {
+        if (problem.hasOneWayTerrain()) {
+            throw new IllegalArgumentException("Mazes with one-way terrain cannot be prepared");
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return result.toString();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated prepared maze artifact");
+            }
+        }
+    }
+
+    /**
+     * Returns the cost of the cheapest path from the given cell to the given key.
+     * The field of key k holds costs of paths <i>leaving</i> k, and since a path
+     * is charged for every cell it enters, reversing a path swaps the cost of its
+     * first cell for the cost of its last one.
+     */
+    private int distanceToKey(int row, int col, int key) {
+        int fromKey = fields[key].get(row * problem.getCols() + col);
+        if (fromKey == DistanceField.UNREACHABLE) {
+            return DistanceField.UNREACHABLE;
+        }
+        return fromKey - problem.getCost(row, col) + problem.getCost(keys[key].row(), keys[key].col());
+    }
+
+    /**
+     * Appends the moves of a cheapest path from the given cell to the given key,
+     * following the key's distance field downhill: the next cell on the path is
+     * always a neighbor whose field value is exactly the current cell's value
+     * less the current cell's cost. Since that value strictly falls with every
+     * move, a field that leads nowhere (as a corrupted artifact's may) ends the
+     * walk rather than trapping it.
+     *
+     * @return The key's cell, where the appended moves end.
+     * @throws IllegalStateException If some cell on the way has no neighbor to
+     *                               step down to.
+     */
+    private MazeState appendLeg(MazeState from, int key, List<String> moves) {
+        int cols = problem.getCols();
+        IntBuffer field = fields[key];
+        int row = from.row(), col = from.col();
+        while (row != keys[key].row() || col != keys[key].col()) {
+            int target = field.get(row * cols + col) - problem.getCost(row, col);
+            int next = -1;
+            for (int dir = 0; dir < MazeProblem.ACTIONS.length && next == -1; dir++) {
+                int nRow = row + MazeProblem.ACTION_ROWS[dir], nCol = col + MazeProblem.ACTION_COLS[dir];
+                if (problem.isOpen(nRow, nCol) && field.get(nRow * cols + nCol) == target) {
+                    next = dir;
+                }
+            }
+            if (next == -1) {
+                throw new IllegalStateException("Distance field of key " + key + " has no way down from row " + row
+                        + ", column " + col);
+            }
+            moves.add(MazeProblem.ACTIONS[next]);
+            row += MazeProblem.ACTION_ROWS[next];
+            col += MazeProblem.ACTION_COLS[next];
+        }
+        return keys[key];
+    }
+
+    /**
+     * An optimal key-collection route from one start cell. The cost and visiting
+     * order are known as soon as the Route exists; the individual moves are only
+     * materialized on the first call to {@link #getMoves()}, or leg by leg, so
+     * that a caller can start moving along the first leg before the later ones
+     * are reconstructed, through {@link #iterateLegs()} or
+     * {@link #publishLegs(Executor)}.
+     */
+    public class Route {
+
+        private final MazeState start;
+        private final int[] order;
+        private final int cost;
+        private List<String> moves;
+
+        Route(MazeState start, int[] order, int cost) {
+            this.start = start;
+            this.order = order;
+            this.cost = cost;
+        }
+
+        /**
+         * Returns the total cost of this route.
+         *
+         * @return The route cost.
+         */
+        public int getCost() {
+            return cost;
+        }
+
+        /**
+         * Returns the keys in the order that this route collects them.
+         *
+         * @return The key MazeStates in visiting order.
+         */
+        public List<MazeState> getKeyOrder() {
+            List<MazeState> result = new ArrayList<>(order.length);
+            for (int key : order) {
+                result.add(keys[key]);
+            }
+            return result;
+        }
+
+        /**
+         * Returns the moves of this route, reconstructing them from the key
+         * distance fields the first time they are requested.
+         *
+         * @return A List of Strings representing actions of the format: ["R", "R",
+         *         "L", ...]
+         */
+        public List<String> getMoves() {
+            if (moves == null) {
+                List<String> result = new ArrayList<>(cost);
+                MazeState at = start;
+                for (int key : order) {
+                    at = appendLeg(at, key, result);
+                }
+                moves = Collections.unmodifiableList(result);
+            }
+            return moves;
+        }
+
+        /**
+         * Returns an iterator over the legs of this route, in visiting order, each
+         * reconstructed only when it is asked for.
+         *
+         * @return An Iterator of the route's Legs.
+         */
+        public Iterator<Leg> iterateLegs() {
+            return new Iterator<Leg>() {
+
+                private int next;
+                private MazeState at = start;
+
+                @Override
+                public boolean hasNext() {
+                    return next < order.length;
+                }
+
+                @Override
+                public Leg next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    int key = order[next];
+                    int legCost = distanceToKey(at.row(), at.col(), key);
+                    List<String> legMoves = new ArrayList<>();
+                    at = appendLeg(at, key, legMoves);
+                    return new Leg(next++, keys[key], legCost, PackedPath.pack(legMoves), legMoves.size());
+                }
+
+            };
+        }
+
+        /**
+         * Returns a publisher of the legs of this route, in visiting order. Each
+         * subscriber gets its own stream: the legs are reconstructed by a task on
+         * the given executor and delivered to the subscriber, on that executor,
+         * as soon as each is ready and requested, while the task goes on to the
+         * next leg. Buffers hold a whole route, so the reconstruction never waits
+         * on a slow subscriber and even a single-threaded executor cannot
+         * deadlock.
+         *
+         * @param executor The Executor to reconstruct and deliver legs on.
+         * @return A Publisher of the route's Legs.
+         */
+        public Flow.Publisher<Leg> publishLegs(Executor executor) {
+            return subscriber -> {
+                SubmissionPublisher<Leg> publisher = new SubmissionPublisher<>(executor,
+                        Math.max(1, order.length));
+                publisher.subscribe(subscriber);
+                executor.execute(() -> {
+                    try {
+                        for (Iterator<Leg> legs = iterateLegs(); legs.hasNext() && publisher.hasSubscribers();) {
+                            publisher.submit(legs.next());
+                            LEGS_STREAMED.increment();
+                        }
+                        publisher.close();
+                    } catch (RuntimeException e) {
+                        publisher.closeExceptionally(e);
+                    }
+                });
+            };
+        }
+
+    }
+
+    /**
+     * One leg of a Route: the moves from where the previous leg ended (or the
+     * route's start) to the next key collected, packed by {@link PackedPath}.
+     */
+    public static class Leg {
+
+        private final int index;
+        private final MazeState key;
+        private final int cost;
+        private final byte[] packed;
+        private final int moveCount;
+
+        Leg(int index, MazeState key, int cost, byte[] packed, int moveCount) {
+            this.index = index;
+            this.key = key;
+            this.cost = cost;
+            this.packed = packed;
+            this.moveCount = moveCount;
+        }
+
+        /**
+         * @return The position of this leg in its route, from 0.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return The key this leg ends at.
+         */
+        public MazeState getKey() {
+            return key;
+        }
+
+        /**
+         * @return The cost of this leg's moves.
+         */
+        public int getCost() {
+            return cost;
+        }
+
+        /**
+         * @return The number of moves in this leg.
+         */
+        public int getMoveCount() {
+            return moveCount;
+        }
+
+        /**
+         * @return A copy of this leg's moves, packed by {@link PackedPath}.
+         */
+        public byte[] getPacked() {
+            return packed.clone();
+        }
+
+        /**
+         * @return A List of Strings representing this leg's actions of the
+         *         format: ["R", "R", "L", ...]
+         */
+        public List<String> getMoves() {
+            return PackedPath.unpack(packed, moveCount);
+        }
+
+    }
+
+}
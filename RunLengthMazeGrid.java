@@ -0,0 +1,191 @@
+/*
+ Filename: RunLengthMazeGrid.java
+ Description: MazeGrid that stores only the open cells of a maze, each row as run-length intervals, and
+                numbers the open cells densely so that solvers can size their tables by open cells.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.util.Arrays;
+
+/**
+ * MazeGrid for wall-dominated maps. Walls are not stored at all: each row is
+ * kept as a sorted list of intervals of consecutive non-wall cells, and the
+ * non-wall cells are numbered with dense open-cell ids in row-major order,
+ * so that one byte per open cell holds its tile and one int per open cell its
+ * position. Memory thus grows with the open cells and the intervals rather
+ * than with <code>rows * cols</code>.
+ * <p>
+ * A MazeProblem over a RunLengthMazeGrid uses the open-cell ids as its cell
+ * indices (see {@link MazeProblem#getCellIndex}), so its per-cell cost array
+ * and the sequential search's per-state tables are sized by open cells too.
+ * Finding the id of a cell is a binary search among the intervals of its row.
+ */
+public class RunLengthMazeGrid implements MazeGrid {
+
+    // Fields
+    // -----------------------------------------------------------------------------
+    private final int rows, cols;
+    private final char wallTile;
+
+    // Intervals of row r are rowRuns[r] to rowRuns[r + 1] - 1; interval i covers
+    // columns runStarts[i] to runEnds[i] - 1, whose open-cell ids start at runIds[i]
+    private final int[] rowRuns, runStarts, runEnds, runIds;
+
+    // Per open-cell id: the tile, and the packed cell index (row * cols + col)
+    private final byte[] tiles;
+    private final int[] cells;
+
+    // Constructors
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Constructs a run-length grid of the given maze, which is read with the
+     * default terrain.
+     *
+     * @param maze An array of Strings in which characters represent the tiles.
+     */
+    public RunLengthMazeGrid(String[] maze) {
+        this(new StringMazeGrid(maze), TerrainTable.DEFAULT);
+    }
+
+    /**
+     * Constructs a run-length grid holding the tiles of the given grid. Cells
+     * whose glyph is a wall in the given terrain are dropped, and read back as
+     * the first wall glyph met (or 'X' if there is none), so the grid should be
+     * used with MazeProblems that read it with the same terrain.
+     *
+     * @param source  The MazeGrid to copy the open cells of.
+     * @param terrain The TerrainTable telling walls from open terrain.
+     */
+    public RunLengthMazeGrid(MazeGrid source, TerrainTable terrain) {
+        this.rows = source.getRows();
+        this.cols = source.getCols();
+        int[] rowRuns = new int[rows + 1], starts = new int[16], ends = new int[16];
+        byte[] tiles = new byte[64];
+        int[] cells = new int[64];
+        int runCount = 0, open = 0;
+        char wall = 0;
+        for (int row = 0; row < rows; row++) {
+            rowRuns[row] = runCount;
+            for (int col = 0; col < cols; col++) {
+                char tile = source.getTile(row, col);
+                if (terrain.isKnown(tile) && !terrain.isPassable(tile)) {
+                    if (wall == 0) {
+                        wall = tile;
+                    }
+                    continue;
+                }
+                if (runCount == rowRuns[row] || ends[runCount - 1] != col) {
+                    if (runCount == starts.length) {
+                        starts = Arrays.copyOf(starts, 2 * runCount);
+                        ends = Arrays.copyOf(ends, 2 * runCount);
+                    }
+                    starts[runCount++] = col;
+                }
+                ends[runCount - 1] = col + 1;
+                if (open == tiles.length) {
+                    tiles = Arrays.copyOf(tiles, 2 * open);
+                    cells = Arrays.copyOf(cells, 2 * open);
+                }
+                tiles[open] = (byte) tile;
+                cells[open++] = row * cols + col;
+            }
+        }
+        rowRuns[rows] = runCount;
+        this.wallTile = (wall == 0) ? 'X' : wall;
+        this.rowRuns = rowRuns;
+        this.runStarts = Arrays.copyOf(starts, runCount);
+        this.runEnds = Arrays.copyOf(ends, runCount);
+        this.runIds = new int[runCount];
+        for (int run = 1; run < runCount; run++) {
+            runIds[run] = runIds[run - 1] + runEnds[run - 1] - runStarts[run - 1];
+        }
+        this.tiles = Arrays.copyOf(tiles, open);
+        this.cells = Arrays.copyOf(cells, open);
+    }
+
+    // Methods
+    // -----------------------------------------------------------------------------
+
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public int getCols() {
+        return cols;
+    }
+
+    @Override
+    public char getTile(int row, int col) {
+        int id = getOpenId(row, col);
+        return (id == -1) ? wallTile : (char) (tiles[id] & 0xFF);
+    }
+
+    /**
+     * Returns the dense id of the given cell among the open cells, which are
+     * numbered in row-major order from 0.
+     *
+     * @param row Row of the cell; must lie within the maze.
+     * @param col Column of the cell; must lie within the maze.
+     * @return The open-cell id, or -1 if the cell is a wall.
+     */
+    public int getOpenId(int row, int col) {
+        int low = rowRuns[row], high = rowRuns[row + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (runStarts[mid] > col) {
+                high = mid - 1;
+            } else if (runEnds[mid] <= col) {
+                low = mid + 1;
+            } else {
+                return runIds[mid] + col - runStarts[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the packed index (<code>row * cols + col</code>) of the open cell
+     * with the given id.
+     *
+     * @param id The open-cell id.
+     * @return The packed cell index.
+     */
+    public int getOpenCell(int id) {
+        return cells[id];
+    }
+
+    /**
+     * Returns the tile of the open cell with the given id.
+     */
+    char getOpenTile(int id) {
+        return (char) (tiles[id] & 0xFF);
+    }
+
+    /**
+     * @return The number of open (non-wall) cells.
+     */
+    public int getOpenCount() {
+        return tiles.length;
+    }
+
+    /**
+     * @return The number of run-length intervals across all rows.
+     */
+    public int getRunCount() {
+        return runStarts.length;
+    }
+
+    /**
+     * @return The glyph walls are read back as.
+     */
+    public char getWallTile() {
+        return wallTile;
+    }
+
+}
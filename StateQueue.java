@@ -0,0 +1,62 @@
+/*
+ Filename: StateQueue.java
+ Description: Priority queue of packed state ids used as the frontier of the Pathfinder search, with a
+                factory that picks the implementation suited to a maze's range of move costs.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+/**
+ * The frontier of a uniform-cost search: packed state ids ordered by their
+ * cost so far. Both implementations keep their bookkeeping in the search's
+ * StateTable, and both expect the costs pushed to never fall below the cost
+ * of the last id polled, as holds in uniform-cost search.
+ */
+interface StateQueue {
+
+    /**
+     * @return true if no id is left to poll.
+     */
+    boolean isEmpty();
+
+    /**
+     * @return The number of entries held, for frontier size statistics.
+     */
+    int size();
+
+    /**
+     * Inserts the id with the given priority, or lowers its priority if it is
+     * already queued at a higher one.
+     *
+     * @param id  The id to insert.
+     * @param key The id's priority.
+     */
+    void push(long id, int key);
+
+    /**
+     * Removes and returns the id with the smallest priority; the queue must not
+     * be empty.
+     *
+     * @return The removed id.
+     */
+    long poll();
+
+    /**
+     * Returns the frontier best suited to a search whose single moves cost at
+     * most the given amount: a bucket queue when that is small enough for its
+     * ring of buckets to stay short, and an indexed heap otherwise.
+     *
+     * @param table   The StateTable of the search.
+     * @param maxCost The largest cost of any single move.
+     * @return The StateQueue.
+     */
+    static StateQueue forCosts(StateTable table, int maxCost) {
+        if (maxCost <= BucketQueue.MAX_COST) {
+            return new BucketQueue(table, maxCost);
+        }
+        return new IndexedHeap(table);
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ Filename: StateTable.java
+ Description: Per-state storage of the Pathfinder search (best cost, parent move, closed flag, and
+                frontier slot), addressed by packed state id.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The tables a best-first search keeps for every state, addressed by packed
+ * state id (<code>cell &lt;&lt; keyCount | keyMask</code>): the best known cost,
+ * the move that led into the state, whether the state has been closed, and the
+ * state's slot in the frontier. Small state spaces are kept in plain arrays;
+ * larger ones live off of the Java heap so that they neither fill the heap nor
+ * lengthen garbage collection pauses. State spaces too large to lay out at all,
+ * of which a search only ever reaches a small part, are kept in a hash table.
+ */
+public interface StateTable {
+
+    /**
+     * State spaces with more states than this are stored off-heap by
+     * {@link #forStates(long)}.
+     */
+    long OFF_HEAP_THRESHOLD = 1L << 25;
+
+    /**
+     * Returns a table for the given number of states, on the heap for small state
+     * spaces and in direct memory for large ones.
+     *
+     * @param states The number of state ids the table must address.
+     * @return An empty StateTable.
+     */
+    static StateTable forStates(long states) {
+        if (states > OFF_HEAP_THRESHOLD) {
+            return OffHeapStateTable.allocate(states);
+        }
+        return new HeapStateTable((int) states);
+    }
+
+    /**
+     * Returns a table that holds only the states written to it, in a hash table
+     * that grows with them, so that its size follows the part of the state space
+     * a search reaches rather than the whole of it.
+     *
+     * @return An empty StateTable.
+     */
+    static StateTable hashed() {
+        return new HashStateTable();
+    }
+
+    /**
+     * Returns a table for the given number of states backed by a memory-mapped
+     * file, so that the state space can exceed physical memory as well as the
+     * heap.
+     *
+     * @param file   The file to map; it is created or resized as needed.
+     * @param states The number of state ids the table must address.
+     * @return An empty StateTable.
+     * @throws IOException If the file cannot be created or mapped.
+     */
+    static StateTable mapped(Path file, long states) throws IOException {
+        return OffHeapStateTable.map(file, states);
+    }
+
+    /**
+     * @return The best known cost of the state, or Integer.MAX_VALUE if it has not
+     *         been reached.
+     */
+    int getCost(long id);
+
+    void setCost(long id, int cost);
+
+    /**
+     * @return The parent move recorded for the state.
+     */
+    int getParent(long id);
+
+    void setParent(long id, int move);
+
+    boolean isClosed(long id);
+
+    void setClosed(long id);
+
+    /**
+     * @return The state's slot in the frontier, or -1 if it is not in the
+     *         frontier.
+     */
+    int getQueueSlot(long id);
+
+    void setQueueSlot(long id, int slot);
+
+}
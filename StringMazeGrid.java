@@ -0,0 +1,43 @@
+/*
+ Filename: StringMazeGrid.java
+ Description: MazeGrid backed by an array of Strings, one per row of the maze.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+/**
+ * MazeGrid backed by an array of Strings, one per row of the maze.
+ */
+public class StringMazeGrid implements MazeGrid {
+
+    private final String[] maze;
+    private final int cols;
+
+    /**
+     * Constructs a grid over the given rows, which must all be the same length.
+     *
+     * @param maze An array of Strings in which characters represent the tiles.
+     */
+    public StringMazeGrid(String[] maze) {
+        this.maze = maze;
+        this.cols = (maze.length == 0) ? 0 : maze[0].length();
+    }
+
+    @Override
+    public int getRows() {
+        return maze.length;
+    }
+
+    @Override
+    public int getCols() {
+        return cols;
+    }
+
+    @Override
+    public char getTile(int row, int col) {
+        return maze[row].charAt(col);
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ Filename: TerrainTable.java
+ Description: Maps the tile glyphs of a maze to the cost of entering them, whether they can be entered at
+                all, and from which directions, so that deployments can define their own terrain classes.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.util.*;
+
+/**
+ * The terrain classes a MazeProblem understands: for every glyph, the cost of
+ * entering a cell that holds it, or that it is a wall, and optionally the one
+ * direction a cell may be entered from (a one-way cell). The
+ * {@link #DEFAULT} table holds the classic tiles: '.' costs 1, 'M' (mud) costs
+ * 3 and 'X' is a wall. The initial state 'I' and the keys '1', '2' and '3' are
+ * reserved and always cost 1.
+ * <p>
+ * Tables are immutable; each <code>with*</code> method returns a new table with
+ * one glyph added or redefined, e.g.
+ *
+ * <pre>
+ * TerrainTable terrain = TerrainTable.DEFAULT.with('S', 2).with('W', 5).withOneWay('&gt;', 1, "R");
+ * </pre>
+ *
+ * A MazeProblem compiles its table into a per-cell cost array when it is
+ * constructed, so lookups during search never consult the table itself.
+ */
+public final class TerrainTable {
+
+    // Fields
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Largest cost a glyph may be given; costs are compiled into one unsigned
+     * byte per cell.
+     */
+    public static final int MAX_COST = 255;
+
+    /**
+     * Name of the system property that {@link #fromProperties} reads a table
+     * specification from.
+     */
+    public static final String PROPERTY = "pathfinder.terrain";
+
+    /**
+     * Bitmask of entry directions (one bit per action, in the order U, D, L, R)
+     * of a cell that can be entered from anywhere.
+     */
+    static final int ALL_ENTRIES = 0xF;
+
+    private static final String RESERVED = "I123";
+
+    /**
+     * The classic terrain: '.' costs 1, 'M' costs 3 and 'X' is a wall.
+     */
+    public static final TerrainTable DEFAULT = new TerrainTable().with('.', 1).with('M', 3).withWall('X');
+
+    // Per glyph: the entry cost (0 for walls), and the directions it may be
+    // entered from (0 for glyphs that are not in the table at all)
+    private final byte[] costs;
+    private final byte[] entries;
+
+    // Constructors
+    // -----------------------------------------------------------------------------
+
+    private TerrainTable() {
+        this.costs = new byte[128];
+        this.entries = new byte[128];
+        for (char glyph : RESERVED.toCharArray()) {
+            costs[glyph] = 1;
+            entries[glyph] = ALL_ENTRIES;
+        }
+    }
+
+    private TerrainTable(TerrainTable base) {
+        this.costs = base.costs.clone();
+        this.entries = base.entries.clone();
+    }
+
+    // Methods
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Returns this table with the given glyph defined as open terrain that costs
+     * the given amount to enter.
+     *
+     * @param glyph The tile character.
+     * @param cost  The cost of entering a cell of this terrain, from 1 to
+     *              {@link #MAX_COST}.
+     * @return The new TerrainTable.
+     */
+    public TerrainTable with(char glyph, int cost) {
+        return define(glyph, cost, ALL_ENTRIES);
+    }
+
+    /**
+     * Returns this table with the given glyph defined as a wall, which can never
+     * be entered.
+     *
+     * @param glyph The tile character.
+     * @return The new TerrainTable.
+     */
+    public TerrainTable withWall(char glyph) {
+        return define(glyph, 0, ALL_ENTRIES);
+    }
+
+    /**
+     * Returns this table with the given glyph defined as one-way terrain, which
+     * can only be entered by the given action: a cell of a glyph entered by "R"
+     * can only be stepped into from its left.
+     *
+     * @param glyph  The tile character.
+     * @param cost   The cost of entering a cell of this terrain, from 1 to
+     *               {@link #MAX_COST}.
+     * @param action The only action that enters the cell: "U", "D", "L" or "R".
+     * @return The new TerrainTable.
+     */
+    public TerrainTable withOneWay(char glyph, int cost, String action) {
+        int dir = Arrays.asList(MazeProblem.ACTIONS).indexOf(action);
+        if (dir == -1) {
+            throw new IllegalArgumentException("Unknown action '" + action + "' for one-way terrain '" + glyph + "'");
+        }
+        return define(glyph, cost, 1 << dir);
+    }
+
+    private TerrainTable define(char glyph, int cost, int entryMask) {
+        if (glyph >= costs.length) {
+            throw new IllegalArgumentException("Terrain glyph '" + glyph + "' is not an ASCII character");
+        }
+        if (RESERVED.indexOf(glyph) != -1) {
+            throw new IllegalArgumentException("Terrain glyph '" + glyph + "' is reserved");
+        }
+        if (cost < 0 || cost > MAX_COST || (cost == 0 && entryMask != ALL_ENTRIES)) {
+            throw new IllegalArgumentException("Terrain cost " + cost + " of '" + glyph + "' is not between 1 and "
+                    + MAX_COST);
+        }
+        TerrainTable result = new TerrainTable(this);
+        result.costs[glyph] = (byte) cost;
+        result.entries[glyph] = (byte) entryMask;
+        return result;
+    }
+
+    /**
+     * Returns the default table with the terrain of the given specification
+     * added: comma-separated entries of the form <code>glyph=cost</code>,
+     * <code>glyph=X</code> for a wall, or <code>glyph=cost:action</code> for
+     * one-way terrain, e.g. <code>S=2,W=5,#=X,&gt;=1:R</code>.
+     *
+     * @param spec The specification.
+     * @return The TerrainTable.
+     */
+    public static TerrainTable parse(String spec) {
+        TerrainTable result = DEFAULT;
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            if (entry.length() < 3 || entry.charAt(1) != '=') {
+                throw new IllegalArgumentException("Terrain entry '" + entry + "' is not of the form glyph=cost");
+            }
+            char glyph = entry.charAt(0);
+            String value = entry.substring(2).trim();
+            int colon = value.indexOf(':');
+            try {
+                if (value.equals("X")) {
+                    result = result.withWall(glyph);
+                } else if (colon == -1) {
+                    result = result.with(glyph, Integer.parseInt(value));
+                } else {
+                    result = result.withOneWay(glyph, Integer.parseInt(value.substring(0, colon).trim()),
+                            value.substring(colon + 1).trim());
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Terrain entry '" + entry + "' has no integer cost", e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the table specified by the property named {@link #PROPERTY}, or
+     * the default table if there is none.
+     *
+     * @param properties Properties that may hold a specification.
+     * @return The TerrainTable.
+     */
+    public static TerrainTable fromProperties(Properties properties) {
+        String spec = properties.getProperty(PROPERTY);
+        return (spec == null) ? DEFAULT : parse(spec);
+    }
+
+    /**
+     * Returns whether the given glyph is part of this table, as terrain, a wall,
+     * or a reserved tile.
+     *
+     * @param glyph The tile character.
+     * @return true if mazes may hold the glyph.
+     */
+    public boolean isKnown(char glyph) {
+        return glyph < entries.length && entries[glyph] != 0;
+    }
+
+    /**
+     * Returns whether cells of the given glyph can be entered at all.
+     *
+     * @param glyph The tile character.
+     * @return true if the glyph is known and not a wall.
+     */
+    public boolean isPassable(char glyph) {
+        return glyph < costs.length && costs[glyph] != 0;
+    }
+
+    /**
+     * Returns the cost of entering a cell of the given glyph.
+     *
+     * @param glyph The tile character.
+     * @return The entry cost, or 0 for walls and unknown glyphs.
+     */
+    public int getCost(char glyph) {
+        return (glyph < costs.length) ? costs[glyph] & 0xFF : 0;
+    }
+
+    /**
+     * Returns the directions a cell of the given glyph may be entered by, as a
+     * bitmask with bit <code>dir</code> set for each action index allowed.
+     */
+    int getEntryMask(char glyph) {
+        return (glyph < entries.length) ? entries[glyph] : 0;
+    }
+
+    /**
+     * Returns the largest cost of any passable glyph, which bounds the cost of
+     * any single move and so decides which frontier a search uses.
+     *
+     * @return The largest entry cost.
+     */
+    public int getMaxCost() {
+        int result = 1;
+        for (byte cost : costs) {
+            result = Math.max(result, cost & 0xFF);
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether any glyph is one-way terrain, which makes moves between
+     * cells asymmetric: a maze using such a table cannot be searched backwards
+     * from its keys.
+     *
+     * @return true if some glyph restricts the directions it is entered from.
+     */
+    public boolean hasOneWay() {
+        for (int glyph = 0; glyph < entries.length; glyph++) {
+            if (costs[glyph] != 0 && entries[glyph] != 0 && entries[glyph] != ALL_ENTRIES) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
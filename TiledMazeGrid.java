@@ -0,0 +1,387 @@
+/*
+ Filename: TiledMazeGrid.java
+ Description: MazeGrid that keeps its tiles on disk in fixed-size square chunks, loading them on demand
+                into a bounded LRU cache, for maps larger than memory.
+ Author: Sam Biner
+ Date: 1/23/2023
+ */
+
+package main.pathfinder.informed.trikey;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MazeGrid whose tiles stay on disk in square chunks of
+ * <code>chunkSize x chunkSize</code> cells, so that a search only ever loads
+ * the chunks its routes pass through. Loaded chunks are kept in an LRU cache
+ * bounded by a memory cap. Whenever a chunk has to be loaded on demand (the
+ * search frontier just reached it), its four neighbors are prefetched in the
+ * background, since the frontier is likely to spill into them next.
+ * <p>
+ * The file format is a header followed by every chunk in row-major order, each
+ * padded with walls to the full chunk size:
+ *
+ * <pre>
+ * int magic, int version, int rows, int cols, int chunkSize,
+ * int specialCount, int[specialCount] specialCells,
+ * byte[chunkSize * chunkSize] chunk...
+ * </pre>
+ *
+ * The special cells (initial state and keys) are recorded when the file is
+ * written, so that MazeProblem never needs to scan the whole map.
+ */
+public class TiledMazeGrid implements MazeGrid, Closeable {
+
+    // Fields
+    // -----------------------------------------------------------------------------
+    private static final int MAGIC = 0x4D5A5431, VERSION = 1;
+
+    private final FileChannel channel;
+    private final int rows, cols, chunkSize, chunkCols, chunkRows;
+    private final int[] specialCells;
+    private final long dataOffset;
+    private final int maxChunks;
+
+    // Loaded chunks in least-recently-used order, plus each thread's most
+    // recently read chunk so that its runs of reads within one chunk skip the
+    // cache lookup, however many threads search the grid at once
+    private final LinkedHashMap<Integer, byte[]> cache;
+    private final ThreadLocal<Chunk> last = new ThreadLocal<>();
+    private final ConcurrentHashMap<Integer, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+    private final ExecutorService prefetcher;
+
+    // Metrics
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), loads = new LongAdder(),
+            prefetches = new LongAdder(), loadNanos = new LongAdder();
+
+    // Constructor
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Opens a tiled maze file written by {@link #write(MazeGrid, Path, int)},
+     * caching at most the given number of bytes of chunks in memory. Every header
+     * field is checked, and the file's length against them, before anything is
+     * allocated from them.
+     *
+     * @param file     The tiled maze file.
+     * @param cacheCap The memory cap of the chunk cache, in bytes; at least one
+     *                 chunk is always cached.
+     * @throws IOException If the file cannot be read or is not a valid tiled maze.
+     */
+    public TiledMazeGrid(Path file, long cacheCap) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(24);
+            readFully(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " is not a version " + VERSION + " tiled maze file");
+            }
+            this.rows = header.getInt();
+            this.cols = header.getInt();
+            this.chunkSize = header.getInt();
+            int specialCount = header.getInt();
+            long cells = (long) rows * cols;
+            if (rows <= 0 || cols <= 0 || cells > Integer.MAX_VALUE) {
+                throw new IOException(file + " has invalid dimensions " + rows + "x" + cols);
+            }
+            if (chunkSize <= 0 || (long) chunkSize * chunkSize > Integer.MAX_VALUE) {
+                throw new IOException(file + " has an invalid chunk size of " + chunkSize);
+            }
+            if (specialCount < 0 || specialCount > (channel.size() - 24) / 4) {
+                throw new IOException(file + " has an invalid special cell count of " + specialCount);
+            }
+            this.dataOffset = 24 + 4L * specialCount;
+            this.chunkRows = (rows + chunkSize - 1) / chunkSize;
+            this.chunkCols = (cols + chunkSize - 1) / chunkSize;
+            long length = dataOffset + (long) chunkRows * chunkCols * chunkSize * chunkSize;
+            if (channel.size() != length) {
+                throw new IOException(file + " is " + channel.size() + " bytes long, not " + length);
+            }
+            this.specialCells = new int[specialCount];
+            ByteBuffer special = ByteBuffer.allocate(4 * specialCount);
+            readFully(special, 24);
+            special.flip();
+            special.asIntBuffer().get(specialCells);
+            for (int cell : specialCells) {
+                if (cell < 0 || cell >= cells) {
+                    throw new IOException(file + " has a special cell " + cell + " outside of the maze");
+                }
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        this.maxChunks = (int) Math.max(1, Math.min(Integer.MAX_VALUE, cacheCap / ((long) chunkSize * chunkSize)));
+        this.cache = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                return size() > maxChunks;
+            }
+        };
+        this.prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "maze-chunk-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Methods
+    // -----------------------------------------------------------------------------
+
+    /**
+     * Writes the given grid to a tiled maze file with the given chunk size,
+     * validating its tiles against the default terrain and recording its
+     * special cells on the way.
+     *
+     * @param grid      The MazeGrid to write.
+     * @param file      The file to write to.
+     * @param chunkSize The side length of each square chunk, in cells.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(MazeGrid grid, Path file, int chunkSize) throws IOException {
+        write(grid, file, chunkSize, TerrainTable.DEFAULT);
+    }
+
+    /**
+     * Writes the given grid to a tiled maze file with the given chunk size,
+     * validating its tiles against the given terrain and recording its special
+     * cells on the way.
+     *
+     * @param grid      The MazeGrid to write.
+     * @param file      The file to write to.
+     * @param chunkSize The side length of each square chunk, in cells.
+     * @param terrain   The TerrainTable whose glyphs the grid may hold.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(MazeGrid grid, Path file, int chunkSize, TerrainTable terrain) throws IOException {
+        int rows = grid.getRows(), cols = grid.getCols();
+        int chunkRows = (rows + chunkSize - 1) / chunkSize, chunkCols = (cols + chunkSize - 1) / chunkSize;
+        List<Integer> special = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                char tile = grid.getTile(row, col);
+                if (tile == 'I' || (tile >= '1' && tile <= '3')) {
+                    special.add(row * cols + col);
+                } else if (!terrain.isKnown(tile)) {
+                    throw new IllegalArgumentException("Maze formatted invalidly: unknown tile '" + tile + "' at row "
+                            + row + ", column " + col);
+                }
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rows);
+            out.writeInt(cols);
+            out.writeInt(chunkSize);
+            out.writeInt(special.size());
+            for (int cell : special) {
+                out.writeInt(cell);
+            }
+            byte[] chunk = new byte[chunkSize * chunkSize];
+            for (int chunkRow = 0; chunkRow < chunkRows; chunkRow++) {
+                for (int chunkCol = 0; chunkCol < chunkCols; chunkCol++) {
+                    for (int r = 0; r < chunkSize; r++) {
+                        for (int c = 0; c < chunkSize; c++) {
+                            int row = chunkRow * chunkSize + r, col = chunkCol * chunkSize + c;
+                            char tile = (row < rows && col < cols) ? grid.getTile(row, col) : 'X';
+                            chunk[r * chunkSize + c] = (byte) tile;
+                        }
+                    }
+                    out.write(chunk);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public int getCols() {
+        return cols;
+    }
+
+    @Override
+    public int[] getSpecialCells() {
+        return specialCells.clone();
+    }
+
+    @Override
+    public boolean isResident() {
+        return false;
+    }
+
+    @Override
+    public char getTile(int row, int col) {
+        int index = (row / chunkSize) * chunkCols + col / chunkSize;
+        Chunk chunk = last.get();
+        if (chunk == null || chunk.index != index) {
+            chunk = new Chunk(index, chunk(index));
+            last.set(chunk);
+        } else {
+            hits.increment();
+        }
+        return (char) chunk.tiles[(row % chunkSize) * chunkSize + col % chunkSize];
+    }
+
+    /**
+     * Returns the chunk with the given index, from the cache if it is there and
+     * from disk otherwise.
+     */
+    private byte[] chunk(int index) {
+        PathfinderEvents.CacheLookup event = new PathfinderEvents.CacheLookup();
+        event.begin();
+        byte[] tiles;
+        synchronized (cache) {
+            tiles = cache.get(index);
+        }
+        event.cache = "mazeChunk";
+        event.hit = tiles != null;
+        if (tiles != null) {
+            hits.increment();
+            event.commit();
+            return tiles;
+        }
+        misses.increment();
+        CompletableFuture<byte[]> inProgress = pending.get(index);
+        tiles = (inProgress != null) ? inProgress.join() : load(index);
+        event.commit();
+        prefetchNeighbors(index);
+        return tiles;
+    }
+
+    /**
+     * Reads the chunk with the given index from disk and adds it to the cache.
+     */
+    private byte[] load(int index) {
+        long start = System.nanoTime();
+        byte[] tiles = new byte[chunkSize * chunkSize];
+        try {
+            readFully(ByteBuffer.wrap(tiles), dataOffset + (long) index * tiles.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load maze chunk " + index, e);
+        }
+        loads.increment();
+        loadNanos.add(System.nanoTime() - start);
+        synchronized (cache) {
+            cache.put(index, tiles);
+        }
+        return tiles;
+    }
+
+    /**
+     * Queues the four chunks around the given one for loading in the background,
+     * skipping any that are already cached or on their way.
+     */
+    private void prefetchNeighbors(int index) {
+        int chunkRow = index / chunkCols, chunkCol = index % chunkCols;
+        for (int dir = 0; dir < MazeProblem.ACTIONS.length; dir++) {
+            int nRow = chunkRow + MazeProblem.ACTION_ROWS[dir], nCol = chunkCol + MazeProblem.ACTION_COLS[dir];
+            if (nRow < 0 || nRow >= chunkRows || nCol < 0 || nCol >= chunkCols) {
+                continue;
+            }
+            int neighbor = nRow * chunkCols + nCol;
+            synchronized (cache) {
+                if (cache.containsKey(neighbor)) {
+                    continue;
+                }
+            }
+            pending.computeIfAbsent(neighbor, key -> {
+                prefetches.increment();
+                return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return load(key);
+                    } finally {
+                        pending.remove(key);
+                    }
+                }, prefetcher);
+            });
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Tiled maze file ends early");
+            }
+        }
+    }
+
+    /**
+     * @return The number of tile reads served from memory.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of tile reads whose chunk was not in the cache.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of chunks read from disk, on demand or by prefetching.
+     */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    /**
+     * @return The number of chunks queued for prefetching.
+     */
+    public long getPrefetches() {
+        return prefetches.sum();
+    }
+
+    /**
+     * @return The total time spent reading chunks from disk, in nanoseconds.
+     */
+    public long getLoadNanos() {
+        return loadNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TiledMazeGrid[%dx%d, chunk %d, cache %d chunks] hits=%d misses=%d loads=%d "
+                + "prefetches=%d loadMillis=%.3f", rows, cols, chunkSize, maxChunks, getHits(), getMisses(),
+                getLoads(), getPrefetches(), getLoadNanos() / 1e6);
+    }
+
+    @Override
+    public void close() throws IOException {
+        prefetcher.shutdownNow();
+        channel.close();
+    }
+
+    /**
+     * A loaded chunk along with its index, so that a thread's most recently read
+     * chunk can be kept as a single reference.
+     */
+    private static class Chunk {
+
+        final int index;
+        final byte[] tiles;
+
+        Chunk(int index, byte[] tiles) {
+            this.index = index;
+            this.tiles = tiles;
+        }
+
+    }
+
+}